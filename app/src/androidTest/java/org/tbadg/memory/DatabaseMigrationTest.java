@@ -0,0 +1,156 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+
+/**
+ * Upgrades a populated version 1 scores database and checks the result against a new install.
+ */
+public class DatabaseMigrationTest extends AndroidTestCase {
+    private static final String NAME = "migration_test.db";
+    private static final int NUM_SCORES = 20000;
+
+    private DatabaseHelper mHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(NAME);
+        mHelper = new DatabaseHelper(getContext(), NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        getContext().deleteDatabase(NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeKeepsScores() {
+        createVersion1();
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        assertEquals(4, db.getVersion());
+        assertEquals(NUM_SCORES, queryLong(db, "SELECT count(*) FROM " + DatabaseHelper.TABLE));
+        assertEquals(NUM_SCORES - 1, queryLong(db, "SELECT max(" + DatabaseHelper.SCORE
+                + ") FROM " + DatabaseHelper.TABLE));
+    }
+
+    public void testUpgradeFillsInStats() {
+        createVersion1();
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        // Every board size from 2 to 24 matches was played:
+        assertEquals(23, queryLong(db, "SELECT count(*) FROM " + DatabaseHelper.STATS_TABLE));
+        assertEquals(NUM_SCORES, queryLong(db, "SELECT sum(" + DatabaseHelper.GAMES + ") FROM "
+                + DatabaseHelper.STATS_TABLE));
+        assertEquals(NUM_SCORES - 1, queryLong(db, "SELECT max(" + DatabaseHelper.BEST_SCORE
+                + ") FROM " + DatabaseHelper.STATS_TABLE));
+        assertEquals(0, queryLong(db, "SELECT min(" + DatabaseHelper.BEST_TIME + ") FROM "
+                + DatabaseHelper.STATS_TABLE));
+    }
+
+    public void testUpgradeFillsInHistograms() {
+        createVersion1();
+        Cursor stats = mHelper.getWritableDatabase().query(
+                DatabaseHelper.STATS_TABLE,
+                new String[] {DatabaseHelper.GAMES, DatabaseHelper.SCORE_HISTOGRAM},
+                null, null, null, null, null);
+        try {
+            while (stats.moveToNext())
+                assertEquals(stats.getInt(0),
+                             ScoreHistogram.fromBytes(stats.getBlob(1)).getNumGames());
+        } finally {
+            stats.close();
+        }
+    }
+
+    public void testUpgradeAddsIndexes() {
+        createVersion1();
+        assertIndexed(mHelper.getWritableDatabase());
+    }
+
+    public void testNewInstallHasIndexes() {
+        assertIndexed(mHelper.getWritableDatabase());
+    }
+
+    public void testTopScoresUseIndexes() {
+        createVersion1();
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        assertTrue(queryPlan(db, "SELECT * FROM " + DatabaseHelper.TABLE
+                + " ORDER BY " + DatabaseHelper.SCORE + " DESC LIMIT 10")
+                           .contains(DatabaseHelper.INDEX_BY_SCORE));
+        assertTrue(queryPlan(db, "SELECT * FROM " + DatabaseHelper.TABLE
+                + " WHERE " + DatabaseHelper.MATCHES + " = 8"
+                + " ORDER BY " + DatabaseHelper.SCORE + " DESC LIMIT 10")
+                           .contains(DatabaseHelper.INDEX_BY_MATCHES));
+    }
+
+    public void testUsesWriteAheadLogging() {
+        Cursor cursor = mHelper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("wal", cursor.getString(0).toLowerCase());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void createVersion1() {
+        SQLiteDatabase db = getContext().openOrCreateDatabase(NAME, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE scores (score integer, matches integer, guesses integer, "
+                           + "elapsedTime integer);");
+
+        SQLiteStatement insert = db.compileStatement("INSERT INTO scores VALUES (?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < NUM_SCORES; i++) {
+                insert.bindLong(1, i);
+                insert.bindLong(2, 2 + i % 23);
+                insert.bindLong(3, 10 + i % 50);
+                insert.bindLong(4, 1000 * (i % 300));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        db.setVersion(1);
+        db.close();
+    }
+
+    private static void assertIndexed(SQLiteDatabase db) {
+        assertEquals(1, queryLong(db, "SELECT count(*) FROM sqlite_master WHERE type = 'index'"
+                + " AND name = '" + DatabaseHelper.INDEX_BY_SCORE + "'"));
+        assertEquals(1, queryLong(db, "SELECT count(*) FROM sqlite_master WHERE type = 'index'"
+                + " AND name = '" + DatabaseHelper.INDEX_BY_MATCHES + "'"));
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String queryPlan(SQLiteDatabase db, String sql) {
+        // The plan's detail column names the index a query uses:
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        StringBuilder plan = new StringBuilder();
+        try {
+            while (cursor.moveToNext())
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,195 @@
+package org.tbadg.memory;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+public class ScoreWriterTest extends AndroidTestCase {
+    private static final String NAME = "score_writer_test.db";
+    private static final int NUM_RESULTS = 200;
+
+    private DatabaseHelper mDb;
+    private Leaderboard mLeaderboard;
+    private ScoreWriter mWriter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(NAME);
+        mDb = new DatabaseHelper(getContext(), NAME);
+        mLeaderboard = new Leaderboard(mDb);
+        mLeaderboard.load();
+        mWriter = new ScoreWriter(mDb, mLeaderboard);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mWriter.close();
+        mDb.close();
+        getContext().deleteDatabase(NAME);
+        super.tearDown();
+    }
+
+    public void testFlushWritesEveryResult() {
+        for (int i = 0; i < NUM_RESULTS; i++)
+            mWriter.add(result(i));
+
+        assertTrue(mWriter.flush(5000));
+        assertEquals(NUM_RESULTS, countScores());
+    }
+
+    public void testRequestedFlushWritesEveryResult() {
+        for (int i = 0; i < NUM_RESULTS; i++)
+            mWriter.add(result(i));
+
+        mWriter.requestFlush();
+        assertTrue(mWriter.flush(5000));
+        assertEquals(NUM_RESULTS, countScores());
+
+        // With nothing pending, there's nothing to hurry:
+        mWriter.requestFlush();
+        mWriter.add(result(NUM_RESULTS));
+        assertTrue(mWriter.flush(5000));
+        assertEquals(NUM_RESULTS + 1, countScores());
+    }
+
+    public void testCloseWritesPendingResults() {
+        for (int i = 0; i < NUM_RESULTS; i++)
+            mWriter.add(result(i));
+
+        mWriter.close();
+        assertEquals(NUM_RESULTS, countScores());
+    }
+
+    public void testWrittenResultsReachLeaderboard() {
+        for (int i = 0; i < NUM_RESULTS; i++)
+            mWriter.add(result(i));
+        assertTrue(mWriter.flush(5000));
+
+        Cursor best = mLeaderboard.getTopScores(8, 3);
+        try {
+            assertEquals(3, best.getCount());
+            assertTrue(best.moveToFirst());
+            assertEquals(NUM_RESULTS - 1, best.getInt(best.getColumnIndex(DatabaseHelper.SCORE)));
+        } finally {
+            best.close();
+        }
+    }
+
+    public void testStatsTrackWrittenResults() {
+        for (int i = 0; i < NUM_RESULTS; i++)
+            mWriter.add(result(i));
+        assertTrue(mWriter.flush(5000));
+
+        Cursor stats = mDb.queryStats();
+        try {
+            assertEquals(1, stats.getCount());
+            assertTrue(stats.moveToFirst());
+            assertEquals(8, stats.getInt(stats.getColumnIndex(DatabaseHelper.MATCHES)));
+            assertEquals(NUM_RESULTS, stats.getInt(stats.getColumnIndex(DatabaseHelper.GAMES)));
+            assertEquals(NUM_RESULTS - 1,
+                         stats.getInt(stats.getColumnIndex(DatabaseHelper.BEST_SCORE)));
+            assertEquals(30, stats.getInt(stats.getColumnIndex(DatabaseHelper.BEST_TIME)));
+            assertEquals((NUM_RESULTS - 1) / 2.0,
+                         stats.getDouble(stats.getColumnIndex(DatabaseHelper.AVERAGE_SCORE)),
+                         0.001);
+        } finally {
+            stats.close();
+        }
+    }
+
+    public void testWrittenResultsAreRanked() {
+        for (int i = 0; i < NUM_RESULTS; i++)
+            mWriter.add(result(i % (GameEngine.MAX_SCORE + 1)));
+        assertTrue(mWriter.flush(5000));
+
+        assertEquals(0, mLeaderboard.getPercentBeaten(8, 0));
+        assertEquals(100, mLeaderboard.getPercentBeaten(8, GameEngine.MAX_SCORE + 1));
+        assertEquals(-1, mLeaderboard.getPercentBeaten(10, 50));
+
+        // A reloaded leaderboard reads the same histogram back:
+        Leaderboard reloaded = new Leaderboard(mDb);
+        reloaded.load();
+        assertEquals(mLeaderboard.getPercentBeaten(8, 75), reloaded.getPercentBeaten(8, 75));
+    }
+
+    public void testLoadDuringWritesCountsEachResultOnce() {
+        mWriter.close();
+        Leaderboard loading = new Leaderboard(mDb);
+        mWriter = new ScoreWriter(mDb, loading);
+
+        for (int i = 0; i < NUM_RESULTS; i++)
+            mWriter.add(result(i % (GameEngine.MAX_SCORE + 1)));
+        loading.load();
+        assertTrue(mWriter.flush(5000));
+
+        Leaderboard reloaded = new Leaderboard(mDb);
+        reloaded.load();
+        for (int score = 0; score <= GameEngine.MAX_SCORE; score += 25)
+            assertEquals(reloaded.getPercentBeaten(8, score), loading.getPercentBeaten(8, score));
+    }
+
+    public void testWritesToUpgradedDatabase() {
+        mWriter.close();
+        mDb.close();
+        getContext().deleteDatabase(NAME);
+
+        // A version 1 database with one earlier game, opened and upgraded by the helper:
+        SQLiteDatabase old = getContext().openOrCreateDatabase(NAME, Context.MODE_PRIVATE, null);
+        old.execSQL("CREATE TABLE scores (score integer, matches integer, guesses integer, "
+                            + "elapsedTime integer);");
+        old.execSQL("INSERT INTO scores VALUES (0, 8, 12, 30);");
+        old.setVersion(1);
+        old.close();
+
+        mDb = new DatabaseHelper(getContext(), NAME);
+        mLeaderboard = new Leaderboard(mDb);
+        mLeaderboard.load();
+        mWriter = new ScoreWriter(mDb, mLeaderboard);
+
+        mWriter.add(result(100));
+        assertTrue(mWriter.flush(5000));
+        assertEquals(2, countScores());
+        assertEquals(50, mLeaderboard.getPercentBeaten(8, 100));
+
+        Cursor stats = mDb.queryStats();
+        try {
+            assertTrue(stats.moveToFirst());
+            assertEquals(2, stats.getInt(stats.getColumnIndex(DatabaseHelper.GAMES)));
+            assertEquals(100, stats.getInt(stats.getColumnIndex(DatabaseHelper.BEST_SCORE)));
+        } finally {
+            stats.close();
+        }
+    }
+
+    public void testAddAfterCloseFails() {
+        mWriter.close();
+        try {
+            mWriter.add(result(0));
+            fail("Added a result to a closed writer");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private static ContentValues result(int i) {
+        ContentValues cv = new ContentValues();
+        cv.put(DatabaseHelper.SCORE, i);
+        cv.put(DatabaseHelper.MATCHES, 8);
+        cv.put(DatabaseHelper.GUESSES, 12);
+        cv.put(DatabaseHelper.ELAPSED_TIME, 30L);
+        return cv;
+    }
+
+    private int countScores() {
+        Cursor cursor = mDb.getReadableDatabase().rawQuery(
+                "SELECT count(*) FROM " + DatabaseHelper.TABLE, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
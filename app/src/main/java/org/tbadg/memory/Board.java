@@ -2,28 +2,21 @@ package org.tbadg.memory;
 
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.os.AsyncTask;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.view.MotionEvent;
-import android.view.View;
 import android.view.ViewGroup;
-import android.widget.LinearLayout;
+import android.widget.FrameLayout;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
 
-public class Board extends LinearLayout {
+public class Board extends FrameLayout {
     private static final String TAG = "Board";
 
     private static final int MIN_NUM_MATCHES = 2;
     private static final int MAX_NUM_MATCHES = 24;
     private static final int DEFAULT_NUM_MATCHES = 8;
-    private static final int CARDS_MATCHED_TIMEOUT_IN_MILLIS = Card.CARD_FLIP_MSECS;
-    private static final int NO_MATCH_TIMEOUT_IN_MILLIS = (int) (Card.CARD_FLIP_MSECS * 1.33);
-    private static final int WINNER_NOTIFICATION_DELAY_IN_MILLIS = Card.CARD_FLIP_MSECS * 2;
-    private final int CARD_MARGIN = Math.round(getResources().getDimension(R.dimen.card_margin));
 
 
     private int mNumMatches;
@@ -31,35 +24,62 @@ public class Board extends LinearLayout {
 
     private int mNumRows;
     private int mNumCols;
-    private int mEmptySpots;
 
-    private int mMatchesShown;
-    private Card mFirstCard;
-    private Card mSecondCard;
+    // The game being played and, once prefetched, the next one; starting a game swaps them:
+    private GameEngine mEngine = new GameEngine();
+    private GameEngine mNextEngine = new GameEngine();
+    private PrefetchTask mPrefetchTask = null;
+    private boolean mNextGameReady = false;
 
-    private int mGuessesMade;
-//    private int mMatchesMade;
-    private long mStartTime;
+    private final BoardRenderer mRenderer;
+
+    // Plays the current game, its delayed actions all dropped when a new game starts:
+    private final GamePlay mGamePlay;
 
-    private final Random mRandom = new Random();
     private SoundsEffects mSoundsEffects = null;
 
     public Board(Context context, AttributeSet attrs) {
         super(context, attrs);
-        setOrientation(VERTICAL);
+
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.Board);
+        int mode = a.getInt(R.styleable.Board_renderer, BoardRenderer.MODE_VIEWS);
+        a.recycle();
+
+        if (mode == BoardRenderer.MODE_GL)
+            mRenderer = new GlBoardView(context);
+        else if (mode == BoardRenderer.MODE_CANVAS)
+            mRenderer = new CanvasBoardView(context);
+        else
+            mRenderer = new CardGridView(context);
+
+        mRenderer.setOnCardTouchListener(onCardTouchListener);
+        mGamePlay = new GamePlay(new GameTimeline(new GameTimeline.LooperClock()),
+                                 mGamePlayListener);
+        mGamePlay.start(mEngine);
+        addView(mRenderer.getView(), new FrameLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
     }
 
     public void setup(SoundsEffects soundsEffects, Runnable onWinnerRunnable) {
         mSoundsEffects = soundsEffects;
         mOnWinnerRunnable = onWinnerRunnable;
+        JankMonitor.setup(getContext());
+        Card.loadCardImages(getContext());
         setNumberOfMatches(DEFAULT_NUM_MATCHES);
     }
 
+    public void pause() {
+        mRenderer.onPause();
+    }
+
+    public void resume() {
+        mRenderer.onResume();
+    }
+
     public int getNumberOfMatches() {
         return mNumMatches;
     }
 
-    @SuppressWarnings("ObjectAllocationInLoop")
     public void setNumberOfMatches(int numberOfMatches) {
         if (numberOfMatches == mNumMatches)
             return;
@@ -69,131 +89,118 @@ public class Board extends LinearLayout {
                     String.format("Number of matches must be between %d and %d inclusive.",
                                   MIN_NUM_MATCHES, MAX_NUM_MATCHES));
 
+        StartupTrace.begin("Board.setNumberOfMatches");
+
+        // A prefetched game is for the old board size:
+        cancelPrefetch();
+
         mNumMatches = numberOfMatches;
-        removeAllViews();
         setupDimensions();
 
-        LinearLayout.LayoutParams rowParams
-                = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
-                                                ViewGroup.LayoutParams.MATCH_PARENT, 1.0f);
-        LinearLayout.LayoutParams cardParams
-                = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
-                                                ViewGroup.LayoutParams.MATCH_PARENT, 1.0f);
-        cardParams.setMargins(CARD_MARGIN, CARD_MARGIN, CARD_MARGIN, CARD_MARGIN);
-
-        if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT)
-            setOrientation(LinearLayout.HORIZONTAL);
-        else
-            setOrientation(LinearLayout.VERTICAL);
-
-        Log.d(TAG, String.format("Building a %d x %d board", mNumRows, mNumCols));
-
-        // Are there too few cards to fill the board?
-        mEmptySpots = (mNumRows * mNumCols) - (mNumMatches * 2);
-
-        // Create mNumRows rows of cards:
-        for (int i = 0; i < mNumRows; i++) {
-            LinearLayout row = new LinearLayout(getContext());
-            //noinspection ResourceType
-            row.setOrientation(otherOrientation(this.getOrientation()));
-            addView(row, rowParams);
-
-            // Create mNumCols cards per row:
-            for (int j = 0; j < mNumCols; j++) {
-                Card card = new Card(getContext());
-                row.addView(card, cardParams);
-                card.setOnTouchListener(cardOnTouchListener);
-            }
-        }
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, String.format("Building a %d x %d board", mNumRows, mNumCols));
+        JankMonitor.settle(JankMonitor.OP_REBUILD);
+        mRenderer.build(mNumRows, mNumCols);
 
         reset();
+        StartupTrace.end("Board.setNumberOfMatches");
     }
 
     public void reset() {
-        Log.d(TAG, String.format("Starting new game for %d matches", mNumMatches));
-
-        // Reset the game state:
-        mMatchesShown = mNumMatches;
-        mFirstCard = null;
-        mSecondCard = null;
-        mGuessesMade = 0;
-//        mMatchesMade = 0;
-
-        // Create a list with two copies of each possible card value. We'll randomly
-        //  select and remove these values later to give them to the cards.
-        // e.g. 3 matches == { 0, 0, 1, 1, 2, 2 }:
-        List<Integer> values = new ArrayList<>(mMatchesShown);
-        for (int i = 0; i < mMatchesShown; i++) {
-            values.add(i);
-            values.add(i);
+        if (BuildConfig.DEBUG)
+            Log.d(TAG, String.format("Starting new game for %d matches", mNumMatches));
+        StartupTrace.begin("Board.reset");
+
+        if (mNextGameReady) {
+            // The next game was dealt and its faces decoded in the background, so just swap:
+            GameEngine engine = mEngine;
+            mEngine = mNextEngine;
+            mNextEngine = engine;
+            mNextGameReady = false;
+
+        } else {
+            // Reset the game state and deal a new board:
+            cancelPrefetch();
+            deal(mEngine, mNumMatches, mNumRows, mNumCols);
         }
 
-        // For each card:
-        for (int i = getChildCount() - 1; i >= 0; --i) {
-            LinearLayout row = (LinearLayout) getChildAt(i);
+        mGamePlay.start(mEngine);
+        Card.setImages(mEngine.getImages());
 
-            for (int j = row.getChildCount() - 1; j >= 0; --j) {
-                Card card = (Card) row.getChildAt(j);
-
-                // Hide two corners or the middle space if empty spots are required:
-                if ((mEmptySpots == 2 && j == mNumCols - 1 && (i == 0 || i == mNumRows - 1))
-                        || (mEmptySpots == 1 && i == mNumRows / 2 && j == mNumCols / 2)) {
-                    card.hide();
-
-                } else {
-                    int index = mRandom.nextInt(values.size());
-                    card.setValue(values.get(index));
-                    values.remove(index);
-
-                    card.showBack();
-                }
-            }
+        // For each card, show its back or hide it if it's an empty spot:
+        for (int position = mEngine.getNumCards() - 1; position >= 0; --position) {
+            if (mEngine.getFace(position) == GameEngine.EMPTY)
+                mRenderer.hide(position);
+            else
+                mRenderer.showBack(position);
         }
 
-        Card.loadCardImages(getContext());
         mSoundsEffects.play(SoundsEffects.Type.START);
+        StartupTrace.end("Board.reset");
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        mGamePlay.stop();
     }
 
-    @SuppressWarnings("ResourceType")
     public void flipOrientation() {
-        Log.d(TAG, "Flipping board");
+        JankMonitor.settle(JankMonitor.OP_ORIENTATION);
+        mRenderer.flipOrientation();
+    }
 
-        LinearLayout board = (LinearLayout) findViewById(R.id.board);
+    public void setTurbo(boolean turbo) {
+        mGamePlay.setTurbo(turbo);
+    }
 
-        int childCount = board.getChildCount();
-        LinearLayout rows[] = new LinearLayout[childCount];
-        for (int i = 0; i < childCount; i++)
-            rows[i] = (LinearLayout) board.getChildAt(i);
+    public boolean isTurbo() {
+        return mGamePlay.isTurbo();
+    }
+
+    public void setRandom(Random random) {
+        mEngine.setRandom(random);
+        mNextEngine.setRandom(random);
+    }
+
+    public void prefetchNextGame() {
+        // Deal the next game and decode its faces while the player is idle, e.g. during the
+        // winner popup:
+        if (mNextGameReady || mPrefetchTask != null)
+            return;
 
-        int orientation = this.getOrientation();
-        board.removeAllViews();
-        board.setOrientation(otherOrientation(orientation));
+        mPrefetchTask = new PrefetchTask(mNextEngine, mNumMatches, mNumRows, mNumCols);
+        mPrefetchTask.execute();
+    }
 
-        for (int i = childCount - 1; i >= 0; i--) {
-            rows[i].setOrientation(orientation);
-            board.addView(rows[i]);
+    private void cancelPrefetch() {
+        // An unfinished task may still be writing to mNextEngine, but tasks run one at a time,
+        // so the next prefetch won't start until it's done:
+        if (mPrefetchTask != null) {
+            mPrefetchTask.cancel(false);
+            mPrefetchTask = null;
         }
+        mNextGameReady = false;
+    }
+
+    private void deal(GameEngine engine, int numMatches, int numRows, int numCols) {
+        engine.deal(numMatches, numRows, numCols);
+        engine.shuffleImages(MemoryActivity.MAX_MATCHES);
+        mRenderer.prepareFaces(engine.getImages(), numMatches);
     }
 
-        public ContentValues getResult() {
+    public ContentValues getResult() {
         ContentValues cv = new ContentValues();
 
-        cv.put(DatabaseHelper.SCORE,
-               mGuessesMade > 0 ? (int) (150.0 * mNumMatches / mGuessesMade + 0.5) : 0);
-        cv.put(DatabaseHelper.MATCHES, mNumMatches);
-        cv.put(DatabaseHelper.GUESSES, mGuessesMade);
-        cv.put(DatabaseHelper.ELAPSED_TIME, (System.currentTimeMillis() - mStartTime + 500) / 1000);
+        cv.put(DatabaseHelper.SCORE, mEngine.getScore());
+        cv.put(DatabaseHelper.MATCHES, mEngine.getNumMatches());
+        cv.put(DatabaseHelper.GUESSES, mEngine.getGuessesMade());
+        long elapsedTime = System.currentTimeMillis() - mGamePlay.getStartTime();
+        cv.put(DatabaseHelper.ELAPSED_TIME, (elapsedTime + 500) / 1000);
 
         return cv;
     }
 
-    private int otherOrientation(int orientation) {
-        if (orientation == LinearLayout.VERTICAL)
-            return LinearLayout.HORIZONTAL;
-        else
-            return LinearLayout.VERTICAL;
-    }
-
     private void setupDimensions() {
         // Returns a pair of dimensions for 2-24 matches. It is the caller's responsibility
         // to ensure that the input number is within the acceptable range.
@@ -214,105 +221,79 @@ public class Board extends LinearLayout {
 
 
     //
-    // Game methods
+    // Listeners:
     //
 
-    private void doMatch() {
-//        mMatchesMade++;
-        postDelayed(removeCards, CARDS_MATCHED_TIMEOUT_IN_MILLIS);
-        mSoundsEffects.play(SoundsEffects.Type.MATCH);
-
-        if (--mMatchesShown <= 0 && mOnWinnerRunnable != null)
-            doWin();
-    }
-
-    private void doNoMatch() {
-        postDelayed(flipCards, NO_MATCH_TIMEOUT_IN_MILLIS);
-        mSoundsEffects.play(SoundsEffects.Type.NO_MATCH);
-    }
-
-    private void doWin() {
-        postDelayed(showWin, WINNER_NOTIFICATION_DELAY_IN_MILLIS);
-    }
-
-
-    //
-    // Listeners and runnables:
-    //
-
-    private final View.OnTouchListener cardOnTouchListener = new View.OnTouchListener() {
+    private final BoardRenderer.OnCardTouchListener onCardTouchListener
+            = new BoardRenderer.OnCardTouchListener() {
         @Override
-        public boolean onTouch(View v, MotionEvent event) {
-            // Return true to consume the event, false to pass it on for further handling.
-
-            // Ignore everything but down events
-            if (event.getAction() != MotionEvent.ACTION_DOWN)
-                return true;
+        public void onCardTouched(int position, long eventTime) {
+            mGamePlay.onCardTouched(position, eventTime);
+        }
+    };
 
-            // Don't allow the same card or more than two cards
-            if (v.equals(mFirstCard) || mSecondCard != null)
-                return true;
+    private final GamePlay.Listener mGamePlayListener = new GamePlay.Listener() {
+        @Override
+        public void onFlipToFront(int position, int face) {
+            mRenderer.flipToFront(position, face);
+        }
 
-            Card card = (Card) v;
-            card.flipToFront();
-            mSoundsEffects.play(SoundsEffects.Type.FLIP);
+        @Override
+        public void onFlipToBack(int position) {
+            mRenderer.flipToBack(position);
+        }
 
-            if (mFirstCard == null) {
-                Log.d(TAG, "First card is " + card.getTag());
-                mFirstCard = card;
+        @Override
+        public void onShowBack(int position) {
+            mRenderer.showBack(position);
+        }
 
-                if (mGuessesMade == 0)
-                    mStartTime = System.currentTimeMillis();
+        @Override
+        public void onRemove(int position) {
+            mRenderer.remove(position);
+        }
 
-                return true;
-            }
+        @Override
+        public void onSound(SoundsEffects.Type type) {
+            mSoundsEffects.play(type);
+        }
 
-            Log.d(TAG, "Second card is " + card.getTag());
-            mSecondCard = card;
-            handleMatch(mFirstCard, mSecondCard);
+        @Override
+        public void onWin() {
+            if (mOnWinnerRunnable == null)
+                return;
 
-            return true;
+            prefetchNextGame();
+            mOnWinnerRunnable.run();
+            mSoundsEffects.play(SoundsEffects.Type.WIN);
         }
     };
 
-    private void handleMatch(Card firstCard, Card secondCard) {
-        mGuessesMade++;
 
-        if (firstCard.equals(secondCard))
-            doMatch();
-        else
-            doNoMatch();
-    }
+    private class PrefetchTask extends AsyncTask<Void, Void, Void> {
+        private final GameEngine mEngine;
+        private final int mNumMatches;
+        private final int mNumRows;
+        private final int mNumCols;
 
-    private final Runnable removeCards = new Runnable() {
-        @Override
-        public void run() {
-            // Hide selected cards
-            mFirstCard.remove();
-            mSecondCard.remove();
-
-            mFirstCard = null;
-            mSecondCard = null;
+        PrefetchTask(GameEngine engine, int numMatches, int numRows, int numCols) {
+            mEngine = engine;
+            mNumMatches = numMatches;
+            mNumRows = numRows;
+            mNumCols = numCols;
         }
-    };
 
-    private final Runnable flipCards = new Runnable() {
         @Override
-        public void run() {
-            // Flip selected cards
-            mFirstCard.flipToBack();
-            mSecondCard.flipToBack();
-
-            mFirstCard = null;
-            mSecondCard = null;
+        protected Void doInBackground(Void... params) {
+            deal(mEngine, mNumMatches, mNumRows, mNumCols);
+            return null;
         }
-    };
 
-    private final Runnable showWin = new Runnable() {
         @Override
-        public void run() {
-            mOnWinnerRunnable.run();
-            mSoundsEffects.play(SoundsEffects.Type.WIN);
+        protected void onPostExecute(Void result) {
+            Log.d(TAG, "Prefetched next game");
+            mPrefetchTask = null;
+            mNextGameReady = true;
         }
-    };
+    }
 }
@@ -0,0 +1,48 @@
+package org.tbadg.memory;
+
+import android.view.View;
+
+/**
+ * Draws the cards of a Board. Board keeps the game rules (in a GameEngine) and tells its
+ * renderer what to show; renderers report touched cards back by board position.
+ */
+interface BoardRenderer {
+
+    // Renderer modes, matching the "renderer" attribute of Board:
+    int MODE_VIEWS = 0;
+    int MODE_CANVAS = 1;
+    int MODE_GL = 2;
+
+    interface OnCardTouchListener {
+        // eventTime is the touch event's, in SystemClock.uptimeMillis() time:
+        void onCardTouched(int position, long eventTime);
+    }
+
+    View getView();
+
+    void setOnCardTouchListener(OnCardTouchListener listener);
+
+    // Lifecycle of the hosting activity:
+    void onPause();
+
+    void onResume();
+
+    // (Re)creates the grid of cards for a board of the given size:
+    void build(int numRows, int numCols);
+
+    // Called once per game with the card image of each face, before the game is shown. May be
+    // called on a background thread, while the previous game is still on screen:
+    void prepareFaces(int[] images, int numFaces);
+
+    void flipOrientation();
+
+    void showBack(int position);
+
+    void hide(int position);
+
+    void flipToFront(int position, int face);
+
+    void flipToBack(int position);
+
+    void remove(int position);
+}
@@ -0,0 +1,310 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Renders a whole board as a single view, drawing every card back and face onto one Canvas and
+ * hit-testing touches by cell. Flips and removals are advanced by a CardAnimationEngine, which
+ * invalidates the view once per frame, and changing the orientation just transposes the grid,
+ * so the view tree never changes after inflation.
+ */
+class CanvasBoardView extends View implements BoardRenderer {
+    private static final String TAG = "CanvasBoardView";
+
+    private static final int STATE_HIDDEN = 0;
+    private static final int STATE_SHOWN = 1;
+    private static final int STATE_REMOVED = 2;
+
+    private static final float CARD_CORNER_DP = 5f;
+    private static final float CARD_BORDER_DP = 1f;
+    private static final float CARD_PADDING_DP = 2f;
+
+    private final int CARD_MARGIN = Math.round(getResources().getDimension(R.dimen.card_margin));
+    private final float mCornerRadius;
+    private final float mBorderWidth;
+    private final float mPadding;
+
+    private final Paint mCardPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mBorderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mImagePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mCardRect = new RectF();
+    private final RectF mImageRect = new RectF();
+
+    private int mNumRows;
+    private int mNumCols;
+    private boolean mTransposed;
+
+    // Per-position card state, indexed like GameEngine positions:
+    private final int[] mState = new int[GameEngine.MAX_CARDS];
+    private final int[] mImage = new int[GameEngine.MAX_CARDS];
+    private final int[] mPendingImage = new int[GameEngine.MAX_CARDS];
+    private final float[] mRotation = new float[GameEngine.MAX_CARDS];
+    private final float[] mScale = new float[GameEngine.MAX_CARDS];
+
+    private final CardFaceCache mFaceCache;
+    private final CardAnimationEngine mAnimations;
+
+    private OnCardTouchListener mOnCardTouchListener;
+
+
+    public CanvasBoardView(Context context) {
+        super(context);
+
+        float density = getResources().getDisplayMetrics().density;
+        mCornerRadius = CARD_CORNER_DP * density;
+        mBorderWidth = CARD_BORDER_DP * density;
+        mPadding = CARD_PADDING_DP * density;
+
+        mCardPaint.setStyle(Paint.Style.FILL);
+        mCardPaint.setColor(getResources().getColor(R.color.beige));
+        mBorderPaint.setStyle(Paint.Style.STROKE);
+        mBorderPaint.setStrokeWidth(mBorderWidth);
+
+        mFaceCache = new CardFaceCache(context);
+        mFaceCache.setOnPreloadedListener(new CardFaceCache.OnPreloadedListener() {
+            @Override
+            public void onPreloaded() {
+                postInvalidate();
+            }
+        });
+        mAnimations = new CardAnimationEngine(context, mAnimationTarget);
+    }
+
+    @Override
+    public View getView() {
+        return this;
+    }
+
+    @Override
+    public void setOnCardTouchListener(OnCardTouchListener listener) {
+        mOnCardTouchListener = listener;
+    }
+
+    @Override
+    public void onPause() {
+    }
+
+    @Override
+    public void onResume() {
+    }
+
+    @Override
+    public void build(int numRows, int numCols) {
+        mNumRows = numRows;
+        mNumCols = numCols;
+        mTransposed = getResources().getConfiguration().orientation
+                == Configuration.ORIENTATION_PORTRAIT;
+
+        mAnimations.cancelAll();
+        for (int i = 0; i < GameEngine.MAX_CARDS; i++)
+            mState[i] = STATE_HIDDEN;
+
+        updateSlotSize();
+        invalidate();
+    }
+
+    @Override
+    public void prepareFaces(int[] images, int numFaces) {
+        mFaceCache.preload(images, numFaces);
+    }
+
+    @Override
+    public void flipOrientation() {
+        Log.d(TAG, "Flipping board");
+
+        mTransposed = !mTransposed;
+        updateSlotSize();
+        invalidate();
+    }
+
+    @Override
+    public void showBack(int position) {
+        mAnimations.cancel(position);
+        mState[position] = STATE_SHOWN;
+        mImage[position] = Card.BACK_IMAGE;
+        mRotation[position] = 0f;
+        mScale[position] = 1f;
+        invalidate();
+    }
+
+    @Override
+    public void hide(int position) {
+        mAnimations.cancel(position);
+        mState[position] = STATE_HIDDEN;
+        invalidate();
+    }
+
+    @Override
+    public void flipToFront(int position, int face) {
+        startFlip(position, Card.getImage(face));
+    }
+
+    @Override
+    public void flipToBack(int position) {
+        startFlip(position, Card.BACK_IMAGE);
+    }
+
+    @Override
+    public void remove(int position) {
+        mAnimations.remove(position);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        // Ignore everything but down events
+        if (event.getAction() != MotionEvent.ACTION_DOWN || mNumRows == 0)
+            return true;
+
+        int screenCols = mTransposed ? mNumRows : mNumCols;
+        int screenRows = mTransposed ? mNumCols : mNumRows;
+        int col = (int) ((event.getX() - getPaddingLeft()) / cellWidth(screenCols));
+        int row = (int) ((event.getY() - getPaddingTop()) / cellHeight(screenRows));
+        if (col < 0 || col >= screenCols || row < 0 || row >= screenRows)
+            return true;
+
+        int position = mTransposed ? col * mNumCols + row : row * mNumCols + col;
+        if (mState[position] == STATE_SHOWN && mOnCardTouchListener != null)
+            mOnCardTouchListener.onCardTouched(position, event.getEventTime());
+
+        return true;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateSlotSize();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mNumRows == 0)
+            return;
+
+        int screenCols = mTransposed ? mNumRows : mNumCols;
+        int screenRows = mTransposed ? mNumCols : mNumRows;
+        float cellWidth = cellWidth(screenCols);
+        float cellHeight = cellHeight(screenRows);
+
+        for (int i = 0; i < mNumRows; i++) {
+            for (int j = 0; j < mNumCols; j++) {
+                int position = i * mNumCols + j;
+                if (mState[position] != STATE_SHOWN)
+                    continue;
+
+                float left = getPaddingLeft() + (mTransposed ? i : j) * cellWidth;
+                float top = getPaddingTop() + (mTransposed ? j : i) * cellHeight;
+                mCardRect.set(left + CARD_MARGIN, top + CARD_MARGIN,
+                              left + cellWidth - CARD_MARGIN, top + cellHeight - CARD_MARGIN);
+
+                drawCard(canvas, position);
+            }
+        }
+    }
+
+    private void drawCard(Canvas canvas, int position) {
+        // A flip turns the card about its vertical axis, which is a horizontal squash in 2D:
+        float scaleX = (float) Math.cos(Math.toRadians(mRotation[position])) * mScale[position];
+        float scaleY = mScale[position];
+
+        int saveCount = canvas.save();
+        canvas.scale(scaleX, scaleY, mCardRect.centerX(), mCardRect.centerY());
+
+        canvas.drawRoundRect(mCardRect, mCornerRadius, mCornerRadius, mCardPaint);
+        canvas.drawRoundRect(mCardRect, mCornerRadius, mCornerRadius, mBorderPaint);
+
+        // Draw the image out of the atlas if it's loaded, else from the slot-sized bitmaps. A
+        // bitmap that's still being preloaded is drawn once it's ready, never decoded here:
+        CardAtlas atlas = CardAtlas.getIfLoaded();
+        if (atlas != null) {
+            fitCenter(CardAtlas.CELL_SIZE, CardAtlas.CELL_SIZE, mCardRect,
+                      mPadding + mBorderWidth, mImageRect);
+            canvas.drawBitmap(atlas.getBitmap(),
+                              atlas.getCell(CardAtlas.cellFor(mImage[position])),
+                              mImageRect, mImagePaint);
+
+        } else {
+            Bitmap bitmap = mFaceCache.get(Card.getImageResource(mImage[position]));
+            if (bitmap != null) {
+                fitCenter(bitmap.getWidth(), bitmap.getHeight(), mCardRect,
+                          mPadding + mBorderWidth, mImageRect);
+                canvas.drawBitmap(bitmap, null, mImageRect, mImagePaint);
+            }
+        }
+
+        canvas.restoreToCount(saveCount);
+    }
+
+    private void startFlip(int position, int image) {
+        mPendingImage[position] = image;
+        mAnimations.flip(position);
+    }
+
+    private void updateSlotSize() {
+        // Card images are decoded at the size of the area inside a card's border and padding:
+        if (mNumRows == 0 || getWidth() == 0)
+            return;
+
+        float inset = 2 * (CARD_MARGIN + mPadding + mBorderWidth);
+        int screenCols = mTransposed ? mNumRows : mNumCols;
+        int screenRows = mTransposed ? mNumCols : mNumRows;
+        mFaceCache.setSlotSize((int) (cellWidth(screenCols) - inset),
+                               (int) (cellHeight(screenRows) - inset));
+    }
+
+    private float cellWidth(int screenCols) {
+        return (float) (getWidth() - getPaddingLeft() - getPaddingRight()) / screenCols;
+    }
+
+    private float cellHeight(int screenRows) {
+        return (float) (getHeight() - getPaddingTop() - getPaddingBottom()) / screenRows;
+    }
+
+    private static void fitCenter(int imageWidth, int imageHeight, RectF bounds, float inset,
+                                  RectF result) {
+        float width = bounds.width() - 2 * inset;
+        float height = bounds.height() - 2 * inset;
+        float scale = Math.min(width / imageWidth, height / imageHeight);
+        float halfWidth = imageWidth * scale / 2;
+        float halfHeight = imageHeight * scale / 2;
+
+        result.set(bounds.centerX() - halfWidth, bounds.centerY() - halfHeight,
+                   bounds.centerX() + halfWidth, bounds.centerY() + halfHeight);
+    }
+
+    private final CardAnimationEngine.Target mAnimationTarget = new CardAnimationEngine.Target() {
+        @Override
+        public void onCardFrame(int position, float rotationY, float scale) {
+            mRotation[position] = rotationY;
+            mScale[position] = scale;
+        }
+
+        @Override
+        public void onFrameDone() {
+            // One redraw per frame, however many cards are animating:
+            invalidate();
+        }
+
+        @Override
+        public void onFlipHalfway(int position) {
+            mImage[position] = mPendingImage[position];
+        }
+
+        @Override
+        public void onAnimationStart(int position, int animation) {
+        }
+
+        @Override
+        public void onAnimationEnd(int position, int animation) {
+            if (animation == CardAnimationEngine.ANIM_REMOVE)
+                mState[position] = STATE_REMOVED;
+        }
+    };
+}
@@ -1,115 +1,93 @@
 package org.tbadg.memory;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.AnimatorSet;
-import android.animation.ObjectAnimator;
-import android.animation.ValueAnimator;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.util.Log;
 import android.view.View;
-import android.view.animation.AccelerateDecelerateInterpolator;
-import android.view.animation.AccelerateInterpolator;
-import android.view.animation.DecelerateInterpolator;
 import android.widget.ImageView;
 
-import java.util.ArrayList;
-import java.util.Collections;
-
 
 public class Card extends ImageView {
     public static final int CARD_FLIP_MSECS = 750;
 
+    // Image number of the card back; faces show images 0 to MAX_MATCHES - 1 (card_N):
+    public static final int BACK_IMAGE = -1;
+
     private static final String TAG = "Card";
-    private static final int CARD_FLIP_DEGREES = 180;
-    private static final int HALF_CARD_FLIP_DEGREES = CARD_FLIP_DEGREES / 2;
-    private static final int HALF_CARD_FLIP_MSECS = CARD_FLIP_MSECS / 2;
-    private static final int CARD_REMOVE_MSECS = 750;
+    static final int CARD_REMOVE_MSECS = 750;
 
-    private Integer mValue;
-    private final static ArrayList<Integer> sImages = new ArrayList<>();
+    private int mValue;
+    private int mPosition;
+    private static int[] sImages = new int[MemoryActivity.MAX_MATCHES];
+    private final static int[] sImageResources = new int[MemoryActivity.MAX_MATCHES];
     private static boolean resourceLoadingFinished = false;
 
-    // Animator set used for flipping a card:
-    private AnimatorSet mFlipCardAnimSet = null;
-    private int mCurrentImage;
+    // Pre-decoded card images, if the owner provides them:
+    private CardFaceCache mFaceCache = null;
+
+    // Shows the current image out of the card atlas, once the atlas has been loaded:
+    private CardAtlas.CellDrawable mCellDrawable = null;
+
+    // The board's animation engine, which animates this card by its position:
+    private CardAnimationEngine mAnimations = null;
+    private int mNumAnimations = 0;
+    private int mPendingImage;
 
-    // Animator set used for removing a card:
-    private AnimatorSet mRemoveCardAnimSet = null;
+    // The image the card shows, and whether it's still waiting for that image to be decoded:
+    private int mImage = BACK_IMAGE;
+    private boolean mImageMissing = false;
 
 
     public Card(Context context) {
         super(context);
-        setup();
 
         setScaleType(ScaleType.FIT_CENTER);
         setBackgroundResource(R.drawable.card_bg);
     }
 
     public static void loadCardImages(Context context) {
-        sImages.clear();
+        // The resource IDs never change, so they're only looked up once:
+        if (resourceLoadingFinished)
+            return;
 
         for (int x = 0; x < MemoryActivity.MAX_MATCHES; x++)
-            sImages.add(context.getResources().getIdentifier("@drawable/card_" + String.valueOf(x),
-                                                             null, context.getPackageName()));
-        Collections.shuffle(sImages);
+            sImageResources[x] = context.getResources().getIdentifier(
+                    "@drawable/card_" + String.valueOf(x), null, context.getPackageName());
 
         resourceLoadingFinished = true;
     }
 
-    private void setup() {
-        // Create animator used to start flipping a card. At the end of this, the card has
-        //   been rotated halfway, showing it's edge, making the current card image disappear:
-        ValueAnimator startFlip = ObjectAnimator.ofFloat(this, "rotationY", 0,
-                                                         HALF_CARD_FLIP_DEGREES);
-        startFlip.setDuration(HALF_CARD_FLIP_MSECS);
-        startFlip.setInterpolator(new AccelerateInterpolator());
-        startFlip.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                // Change the card image when the card is half-flipped:
-                Card.this.setImageResource(mCurrentImage);
-            }
-        });
-
-        // Create animator used to finish flipping a card. At the start, the card edge is facing
-        //   the user. The new image is then rotated into view until it is fully displayed:
-        ValueAnimator finishFlip = ObjectAnimator.ofFloat(this, "rotationY",
-                                                          -HALF_CARD_FLIP_DEGREES, 0);
-        finishFlip.setDuration(HALF_CARD_FLIP_MSECS);
-        finishFlip.setInterpolator(new DecelerateInterpolator());
-
-        // Create an Animator set with the sequence: mStartFlip, mFinishFlip:
-        mFlipCardAnimSet = new AnimatorSet();
-        mFlipCardAnimSet.play(startFlip).before(finishFlip);
-
-        // Create animators to remove a card by shrinking it to nothing:
-        ValueAnimator removeCardX = ObjectAnimator.ofFloat(this, "scaleX", 1f, 0f);
-        ValueAnimator removeCardY = ObjectAnimator.ofFloat(this, "scaleY", 1f, 0f);
-
-        // Create animator set used to remove a card:
-        mRemoveCardAnimSet = new AnimatorSet();
-        mRemoveCardAnimSet.setDuration(CARD_REMOVE_MSECS);
-        mRemoveCardAnimSet.setInterpolator(new AccelerateDecelerateInterpolator());
-        mRemoveCardAnimSet.play(removeCardX).with(removeCardY);
-        mRemoveCardAnimSet.addListener(new AnimatorListenerAdapter() {
-            @Override
-            public void onAnimationEnd(Animator animation) {
-                Card.this.setVisibility(INVISIBLE);
-            }
-        });
-    }
-
-
-    public void setValue(Integer value) {
+    public static void setImages(int[] images) {
+        // The image shown by each face of the current game, as dealt by its GameEngine:
+        sImages = images;
+    }
+
+    public void setFaceCache(CardFaceCache faceCache) {
+        mFaceCache = faceCache;
+    }
+
+    public void setAnimationEngine(CardAnimationEngine animations) {
+        mAnimations = animations;
+    }
+
+    public void setValue(int value) {
         mValue = value;
     }
 
-    public Integer getValue() {
+    public int getValue() {
         return mValue;
     }
 
+    public void setPosition(int position) {
+        mPosition = position;
+    }
+
+    public int getPosition() {
+        return mPosition;
+    }
+
     public void hide() {
+        stopAllAnimations();
         setVisibility(View.INVISIBLE);
 
         // Without this, the card will sometimes stay visible:
@@ -117,14 +95,21 @@ public class Card extends ImageView {
     }
 
     public void remove() {
-        mRemoveCardAnimSet.start();
+        if (mAnimations != null)
+            mAnimations.remove(mPosition);
+        else
+            setVisibility(INVISIBLE);
     }
 
     public void showBack() {
+        if (mAnimations != null)
+            mAnimations.cancel(mPosition);
+        stopAllAnimations();
+
         setScaleX(1f);
         setScaleY(1f);
         setVisibility(View.VISIBLE);
-        setImageResource(R.drawable.card_back);
+        setImage(BACK_IMAGE);
     }
 
     @SuppressWarnings("unused")
@@ -133,11 +118,15 @@ public class Card extends ImageView {
         setScaleY(1f);
         setVisibility(View.VISIBLE);
         Log.d(TAG, "Resource ID = " + mValue);
-        setImageResource(sImages.get(mValue));
+        setImage(getImage(mValue));
     }
 
-    public boolean equals(Card other) {
-        return mValue.equals(other.mValue);
+    static public int getImage(int value) {
+        return sImages[value];
+    }
+
+    static public int getImageResource(int image) {
+        return image == BACK_IMAGE ? R.drawable.card_back : sImageResources[image];
     }
 
     static public boolean isResourceLoadingFinished() {
@@ -145,17 +134,78 @@ public class Card extends ImageView {
     }
 
     public void flipToBack() {
-        Log.d(TAG, String.format("Flipping card %d to back", mValue));
-        flipCard(R.drawable.card_back);
+        EventTrace.record(EventTrace.FLIP_TO_BACK, mPosition, mValue);
+        flipCard(BACK_IMAGE);
     }
 
     public void flipToFront() {
-        Log.d(TAG, String.format("Flipping card %d to front", mValue));
-        flipCard(sImages.get(mValue));
+        EventTrace.record(EventTrace.FLIP_TO_FRONT, mPosition, mValue);
+        flipCard(getImage(mValue));
     }
 
     private void flipCard(int image) {
-        mCurrentImage = image;
-        mFlipCardAnimSet.start();
+        mPendingImage = image;
+        if (mAnimations != null)
+            mAnimations.flip(mPosition);
+        else
+            setImage(image);
+    }
+
+    void onFlipHalfway() {
+        setImage(mPendingImage);
+    }
+
+    void startAnimating() {
+        // Hardware layers make each frame a cheap recomposite of the card. A card can be
+        // flipping and being removed at once, so it keeps its layer until the last one ends:
+        if (mNumAnimations++ == 0)
+            setLayerType(LAYER_TYPE_HARDWARE, null);
+    }
+
+    void stopAnimating() {
+        if (--mNumAnimations == 0)
+            setLayerType(LAYER_TYPE_NONE, null);
+    }
+
+    private void stopAllAnimations() {
+        mNumAnimations = 0;
+        setLayerType(LAYER_TYPE_NONE, null);
+        setRotationY(0f);
+    }
+
+    void rebindImage() {
+        // The face cache has new images, which may include the one this card is waiting for:
+        if (mImageMissing)
+            setImage(mImage);
+    }
+
+    private void setImage(int image) {
+        mImage = image;
+        mImageMissing = false;
+
+        // Draw from the atlas if it's loaded; switching images then only changes the cell:
+        CardAtlas atlas = CardAtlas.getIfLoaded();
+        if (atlas != null) {
+            if (mCellDrawable == null)
+                mCellDrawable = new CardAtlas.CellDrawable(atlas);
+
+            mCellDrawable.setCell(CardAtlas.cellFor(image));
+            if (getDrawable() != mCellDrawable)
+                setImageDrawable(mCellDrawable);
+            return;
+        }
+
+        // Otherwise bind the slot-sized bitmap if it's been decoded. Decoding the resource here
+        // would stall the flip, so until the preload gets to it, only the plain card shows:
+        Bitmap bitmap = mFaceCache != null ? mFaceCache.get(getImageResource(image)) : null;
+        if (bitmap == null) {
+            mImageMissing = true;
+            setImageDrawable(null);
+            if (mFaceCache != null)
+                mFaceCache.requestPreload();
+            return;
+        }
+
+        setImageBitmap(bitmap);
     }
 }
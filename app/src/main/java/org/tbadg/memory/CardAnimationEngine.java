@@ -0,0 +1,285 @@
+package org.tbadg.memory;
+
+import android.animation.TimeInterpolator;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.WindowManager;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.AccelerateInterpolator;
+import android.view.animation.DecelerateInterpolator;
+
+/**
+ * Runs the flip and remove animations of every card on a board from a single per-frame tick:
+ * one Choreographer callback (or, before Jelly Bean, one Handler message) advances all active
+ * animations and hands the results to the renderer, so N animating cards cost one callback per
+ * frame instead of N animators. Animation time can be scaled globally, and frames skipped while
+ * animating are counted and logged.
+ *
+ * Animations are per board position; a card can be flipping and being removed at the same time.
+ */
+class CardAnimationEngine {
+
+    // Animation kinds, as passed to Target.onAnimationStart() and onAnimationEnd():
+    public static final int ANIM_FLIP = 1;
+    public static final int ANIM_REMOVE = 2;
+
+    // Time scale that jumps every animation to its end state on its first frame:
+    public static final float INSTANT = Float.POSITIVE_INFINITY;
+
+    private static final float HALF_FLIP_MSECS = Card.CARD_FLIP_MSECS / 2f;
+    private static final float HALF_FLIP_DEGREES = 90f;
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+    private static final long NANOS_PER_MSEC = 1000000;
+
+    // Elapsed time of an animation that isn't running:
+    private static final float INACTIVE = -1f;
+
+    interface Target {
+        // Called once per frame for every animating card, then once when the frame is done:
+        void onCardFrame(int position, float rotationY, float scale);
+
+        void onFrameDone();
+
+        // A flipping card is edge-on, so its image can be changed:
+        void onFlipHalfway(int position);
+
+        void onAnimationStart(int position, int animation);
+
+        void onAnimationEnd(int position, int animation);
+    }
+
+    private static float sTimeScale = 1f;
+
+    private final Target mTarget;
+    private final long mFrameIntervalNanos;
+
+    private final TimeInterpolator mStartFlipInterpolator = new AccelerateInterpolator();
+    private final TimeInterpolator mFinishFlipInterpolator = new DecelerateInterpolator();
+    private final TimeInterpolator mRemoveInterpolator = new AccelerateDecelerateInterpolator();
+
+    // Per-position animation time in milliseconds, or INACTIVE:
+    private final float[] mFlipTime = new float[GameEngine.MAX_CARDS];
+    private final float[] mRemoveTime = new float[GameEngine.MAX_CARDS];
+    private final boolean[] mFlipHalfway = new boolean[GameEngine.MAX_CARDS];
+    private int mNumActive = 0;
+
+    private boolean mFrameScheduled = false;
+    private long mLastFrameNanos = 0;
+    private int mDroppedFrames = 0;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private Object mFrameCallback = null;
+
+
+    public CardAnimationEngine(Context context, Target target) {
+        this(target, getFrameIntervalNanos(context));
+    }
+
+    CardAnimationEngine(Target target, long frameIntervalNanos) {
+        mTarget = target;
+        mFrameIntervalNanos = frameIntervalNanos;
+
+        for (int i = 0; i < GameEngine.MAX_CARDS; i++) {
+            mFlipTime[i] = INACTIVE;
+            mRemoveTime[i] = INACTIVE;
+        }
+    }
+
+    public static long getFrameIntervalNanos(Context context) {
+        WindowManager windowManager
+                = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager != null
+                ? windowManager.getDefaultDisplay().getRefreshRate() : DEFAULT_REFRESH_RATE;
+        if (refreshRate <= 0f)
+            refreshRate = DEFAULT_REFRESH_RATE;
+
+        return (long) (1000 * NANOS_PER_MSEC / refreshRate);
+    }
+
+    public static void setTimeScale(float timeScale) {
+        // e.g. 0.5 runs every animation at half speed, 2 at double speed, INSTANT not at all:
+        sTimeScale = timeScale;
+    }
+
+    public static float scaleTime(float msecs) {
+        // The first frame of an animation is 0 msecs in, which must still end an instant one:
+        return sTimeScale == INSTANT ? Float.MAX_VALUE : msecs * sTimeScale;
+    }
+
+    public void flip(int position) {
+        if (mFlipTime[position] == INACTIVE)
+            start(position, ANIM_FLIP);
+
+        mFlipTime[position] = 0;
+        mFlipHalfway[position] = false;
+    }
+
+    public void remove(int position) {
+        if (mRemoveTime[position] == INACTIVE)
+            start(position, ANIM_REMOVE);
+
+        mRemoveTime[position] = 0;
+    }
+
+    public void cancel(int position) {
+        // Stops the card's animations where they are, without any callbacks:
+        if (mFlipTime[position] != INACTIVE) {
+            mNumActive--;
+            JankMonitor.end(JankMonitor.OP_FLIP);
+        }
+        if (mRemoveTime[position] != INACTIVE) {
+            mNumActive--;
+            JankMonitor.end(JankMonitor.OP_REMOVE);
+        }
+
+        mFlipTime[position] = INACTIVE;
+        mRemoveTime[position] = INACTIVE;
+    }
+
+    public void cancelAll() {
+        for (int position = 0; position < GameEngine.MAX_CARDS; position++)
+            cancel(position);
+    }
+
+    private void start(int position, int animation) {
+        mTarget.onAnimationStart(position, animation);
+        JankMonitor.begin(operationOf(animation));
+        mNumActive++;
+        scheduleFrame();
+    }
+
+
+    //
+    // Frame ticks:
+    //
+
+    private void scheduleFrame() {
+        if (mFrameScheduled)
+            return;
+
+        mFrameScheduled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            postFrameCallback();
+        else
+            mHandler.postDelayed(mFrameRunnable, mFrameIntervalNanos / NANOS_PER_MSEC);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (mFrameCallback == null) {
+            mFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    onFrame(frameTimeNanos);
+                }
+            };
+        }
+
+        Choreographer.getInstance().postFrameCallback(
+                (Choreographer.FrameCallback) mFrameCallback);
+    }
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onFrame(System.nanoTime());
+        }
+    };
+
+    void onFrame(long frameTimeNanos) {
+        // Called for every frame while animating; tests call it to run frames on their own clock:
+        mFrameScheduled = false;
+
+        // Animations start on the first frame after they were requested:
+        float deltaMsecs = 0;
+        if (mLastFrameNanos != 0) {
+            long delta = frameTimeNanos - mLastFrameNanos;
+            deltaMsecs = (float) delta / NANOS_PER_MSEC;
+
+            int skipped = (int) ((delta + mFrameIntervalNanos / 2) / mFrameIntervalNanos) - 1;
+            if (skipped > 0) {
+                mDroppedFrames += skipped;
+                EventTrace.record(EventTrace.DROPPED_FRAMES, skipped, mDroppedFrames);
+            }
+        }
+
+        advance(scaleTime(deltaMsecs));
+        mTarget.onFrameDone();
+
+        if (mNumActive > 0) {
+            mLastFrameNanos = frameTimeNanos;
+            scheduleFrame();
+        } else {
+            mLastFrameNanos = 0;
+        }
+    }
+
+    private void advance(float deltaMsecs) {
+        for (int position = 0; position < GameEngine.MAX_CARDS; position++) {
+            if (mFlipTime[position] == INACTIVE && mRemoveTime[position] == INACTIVE)
+                continue;
+
+            float rotationY = advanceFlip(position, deltaMsecs);
+            float scale = advanceRemove(position, deltaMsecs);
+            mTarget.onCardFrame(position, rotationY, scale);
+
+            if (mFlipTime[position] == Card.CARD_FLIP_MSECS)
+                end(position, mFlipTime, ANIM_FLIP);
+            if (mRemoveTime[position] == Card.CARD_REMOVE_MSECS)
+                end(position, mRemoveTime, ANIM_REMOVE);
+        }
+    }
+
+    private float advanceFlip(int position, float deltaMsecs) {
+        float time = mFlipTime[position];
+        if (time == INACTIVE)
+            return 0f;
+
+        if (time == 0)
+            TapLatency.onFirstFrame(position);
+
+        time = Math.min(time + deltaMsecs, Card.CARD_FLIP_MSECS);
+        mFlipTime[position] = time;
+
+        // Rotate the current image away until its edge faces the user:
+        if (time < HALF_FLIP_MSECS)
+            return HALF_FLIP_DEGREES
+                    * mStartFlipInterpolator.getInterpolation(time / HALF_FLIP_MSECS);
+
+        // Then change the image and rotate the new one into view:
+        if (!mFlipHalfway[position]) {
+            mFlipHalfway[position] = true;
+            mTarget.onFlipHalfway(position);
+        }
+
+        return -HALF_FLIP_DEGREES + HALF_FLIP_DEGREES
+                * mFinishFlipInterpolator.getInterpolation((time - HALF_FLIP_MSECS)
+                                                                   / HALF_FLIP_MSECS);
+    }
+
+    private float advanceRemove(int position, float deltaMsecs) {
+        float time = mRemoveTime[position];
+        if (time == INACTIVE)
+            return 1f;
+
+        time = Math.min(time + deltaMsecs, Card.CARD_REMOVE_MSECS);
+        mRemoveTime[position] = time;
+
+        return 1f - mRemoveInterpolator.getInterpolation(time / Card.CARD_REMOVE_MSECS);
+    }
+
+    private void end(int position, float[] times, int animation) {
+        times[position] = INACTIVE;
+        mNumActive--;
+        JankMonitor.end(operationOf(animation));
+        mTarget.onAnimationEnd(position, animation);
+    }
+
+    private static int operationOf(int animation) {
+        return animation == ANIM_FLIP ? JankMonitor.OP_FLIP : JankMonitor.OP_REMOVE;
+    }
+}
@@ -0,0 +1,235 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * All card images packed into one bitmap: the card background, the card back and every face,
+ * each in a square cell of a fixed grid. The atlas is built the first time the app runs and
+ * cached as a PNG in app storage, keyed by version code so a new release rebuilds it.
+ *
+ * Renderers draw sub-rectangles of the one bitmap (or texture) instead of switching between
+ * per-image bitmaps.
+ */
+class CardAtlas {
+    private static final String TAG = "CardAtlas";
+
+    // A power-of-two sized grid, so the atlas can also be used directly as a GL ES 1.x texture:
+    public static final int CELL_SIZE = 128;
+    public static final int COLS = 8;
+    public static final int ROWS = 4;
+    public static final int WIDTH = COLS * CELL_SIZE;
+    public static final int HEIGHT = ROWS * CELL_SIZE;
+
+    // Cell layout: the card background, the card back, then card_N in cell N + 2:
+    public static final int BACKGROUND_CELL = 0;
+    public static final int BACK_CELL = 1;
+    public static final int FIRST_FACE_CELL = 2;
+    public static final int NUM_CELLS = FIRST_FACE_CELL + MemoryActivity.MAX_MATCHES;
+
+    private static final String FILE_PREFIX = "card_atlas_";
+    private static final String FILE_SUFFIX = ".png";
+    private static final int PNG_QUALITY = 100;
+
+    private static volatile CardAtlas sAtlas = null;
+
+    private final Bitmap mBitmap;
+    private final Rect[] mCells = new Rect[NUM_CELLS];
+
+
+    private CardAtlas(Bitmap bitmap) {
+        mBitmap = bitmap;
+
+        for (int cell = 0; cell < NUM_CELLS; cell++) {
+            int left = (cell % COLS) * CELL_SIZE;
+            int top = (cell / COLS) * CELL_SIZE;
+            mCells[cell] = new Rect(left, top, left + CELL_SIZE, top + CELL_SIZE);
+        }
+    }
+
+    public static int cellFor(int image) {
+        return image == Card.BACK_IMAGE ? BACK_CELL : FIRST_FACE_CELL + image;
+    }
+
+    public static CardAtlas getIfLoaded() {
+        return sAtlas;
+    }
+
+    public static synchronized CardAtlas load(Context context) {
+        // Blocks while the atlas is read from storage or, the first time, built and saved:
+        if (sAtlas != null)
+            return sAtlas;
+
+        File file = new File(context.getFilesDir(),
+                             FILE_PREFIX + BuildConfig.VERSION_CODE + FILE_SUFFIX);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = file.exists() ? BitmapFactory.decodeFile(file.getPath(), options) : null;
+
+        if (bitmap == null || bitmap.getWidth() != WIDTH || bitmap.getHeight() != HEIGHT) {
+            Log.d(TAG, "Building card atlas");
+            bitmap = build(context);
+            save(context, bitmap, file);
+        }
+
+        sAtlas = new CardAtlas(bitmap);
+        return sAtlas;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    public Rect getCell(int cell) {
+        return mCells[cell];
+    }
+
+
+    //
+    // Building and caching the atlas:
+    //
+
+    private static Bitmap build(Context context) {
+        Bitmap atlas = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(atlas);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Rect cellRect = new Rect();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+
+        for (int cell = 0; cell < NUM_CELLS; cell++) {
+            int left = (cell % COLS) * CELL_SIZE;
+            int top = (cell / COLS) * CELL_SIZE;
+            cellRect.set(left, top, left + CELL_SIZE, top + CELL_SIZE);
+
+            if (cell == BACKGROUND_CELL) {
+                Drawable background = context.getResources().getDrawable(R.drawable.card_bg);
+                background.setBounds(cellRect.left, cellRect.top, cellRect.right, cellRect.bottom);
+                background.draw(canvas);
+                continue;
+            }
+
+            int resourceId = cell == BACK_CELL ? R.drawable.card_back
+                    : context.getResources().getIdentifier(
+                            "@drawable/card_" + String.valueOf(cell - FIRST_FACE_CELL), null,
+                            context.getPackageName());
+            Bitmap image = BitmapFactory.decodeResource(context.getResources(), resourceId,
+                                                        options);
+            if (image == null) {
+                Log.e(TAG, "Failed to decode card image for atlas cell " + cell);
+                continue;
+            }
+
+            canvas.drawBitmap(image, null, cellRect, paint);
+            image.recycle();
+        }
+
+        return atlas;
+    }
+
+    private static void save(Context context, Bitmap bitmap, File file) {
+        // Write to a temporary file and rename it, so a half-written atlas is never read back:
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+
+        try {
+            out = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, PNG_QUALITY, out);
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(file))
+                Log.e(TAG, "Failed to rename " + temp);
+
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save card atlas", e);
+
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        // Atlases left over from older versions are no longer needed:
+        File[] files = context.getFilesDir().listFiles();
+        if (files == null)
+            return;
+
+        for (File old : files) {
+            String name = old.getName();
+            if (name.startsWith(FILE_PREFIX) && !name.equals(file.getName()))
+                //noinspection ResultOfMethodCallIgnored
+                old.delete();
+        }
+    }
+
+
+    //
+    // Drawable showing one cell of the atlas:
+    //
+
+    public static class CellDrawable extends Drawable {
+        private final CardAtlas mAtlas;
+        private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        private int mCell = BACK_CELL;
+
+        public CellDrawable(CardAtlas atlas) {
+            mAtlas = atlas;
+        }
+
+        public void setCell(int cell) {
+            if (cell == mCell)
+                return;
+
+            mCell = cell;
+            invalidateSelf();
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            canvas.drawBitmap(mAtlas.mBitmap, mAtlas.mCells[mCell], getBounds(), mPaint);
+        }
+
+        @Override
+        public int getIntrinsicWidth() {
+            return CELL_SIZE;
+        }
+
+        @Override
+        public int getIntrinsicHeight() {
+            return CELL_SIZE;
+        }
+
+        @Override
+        public void setAlpha(int alpha) {
+            mPaint.setAlpha(alpha);
+        }
+
+        @Override
+        public void setColorFilter(ColorFilter colorFilter) {
+            mPaint.setColorFilter(colorFilter);
+        }
+
+        @Override
+        public int getOpacity() {
+            return PixelFormat.TRANSLUCENT;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Size-bounded LRU cache of card images, decoded once at the size of a card slot so flipping a
+ * card only binds an existing bitmap and never touches the decoder.
+ *
+ * The card PNGs are translucent, so each image is flattened onto the card's background colour,
+ * which lets the cached bitmaps be opaque RGB_565 at half the memory of ARGB_8888. Decoding
+ * reuses a single scratch bitmap (inBitmap) wherever the platform allows it.
+ *
+ * Images are preloaded on a background thread, both for a new game and after the slot size
+ * changes, while the UI thread only ever reads the cache; decoding is serialized on the cache itself.
+ * Nothing is decoded while the card atlas is loaded, as the cards are drawn from it instead.
+ */
+class CardFaceCache {
+    private static final String TAG = "CardFaceCache";
+
+    // Use at most this fraction of the heap for card images:
+    private static final int HEAP_FRACTION = 8;
+
+    interface OnPreloadedListener {
+        // Called on the preloading thread once the images of a preload are in the cache:
+        void onPreloaded();
+    }
+
+    private final Resources mResources;
+    private final int mBackgroundColor;
+    private final LruCache<Integer, Bitmap> mCache;
+
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mDestination = new Rect();
+    private Bitmap mScratch;
+
+    private int mWidth;
+    private int mHeight;
+    private final int[] mImages = new int[GameEngine.MAX_IMAGES];
+    private int mNumFaces;
+    private boolean mPreloadScheduled = false;
+    private volatile OnPreloadedListener mOnPreloadedListener = null;
+
+
+    public CardFaceCache(Context context) {
+        mResources = context.getResources();
+        mBackgroundColor = mResources.getColor(R.color.beige);
+        mOptions.inScaled = false;
+
+        int maxBytes = (int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+        mCache = new LruCache<Integer, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Integer key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    public void setOnPreloadedListener(OnPreloadedListener listener) {
+        mOnPreloadedListener = listener;
+    }
+
+    public synchronized void setSlotSize(int width, int height) {
+        if (width == mWidth && height == mHeight)
+            return;
+
+        // Bitmaps of the old size are dropped, not recycled, as cards may still be showing them:
+        mWidth = width;
+        mHeight = height;
+        mCache.evictAll();
+
+        if (mNumFaces > 0)
+            schedulePreload();
+    }
+
+    public synchronized void preload(int[] images, int numFaces) {
+        // Decode the back and every face of the coming game up front. The images are copied, as
+        // the engine may deal again before they're decoded:
+        System.arraycopy(images, 0, mImages, 0, numFaces);
+        mNumFaces = numFaces;
+        schedulePreload();
+    }
+
+    public void requestPreload() {
+        // A card is waiting for an image that isn't in the cache, so preload the game's again.
+        // The cache is locked while decoding, so it's scheduled from the preloading thread:
+        AsyncTask.SERIAL_EXECUTOR.execute(mRequestPreloadRunnable);
+    }
+
+    private final Runnable mRequestPreloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (CardFaceCache.this) {
+                schedulePreload();
+            }
+        }
+    };
+
+    private void schedulePreload() {
+        if (mPreloadScheduled || mWidth <= 0 || mHeight <= 0 || CardAtlas.getIfLoaded() != null)
+            return;
+
+        mPreloadScheduled = true;
+        AsyncTask.SERIAL_EXECUTOR.execute(mPreloadRunnable);
+    }
+
+    private final Runnable mPreloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (CardFaceCache.this) {
+                mPreloadScheduled = false;
+            }
+
+            // One image at a time, so the UI thread never waits for more than a single decode:
+            decodeAndCache(Card.getImageResource(Card.BACK_IMAGE));
+            for (int face = 0; ; face++) {
+                synchronized (CardFaceCache.this) {
+                    if (face >= mNumFaces || CardAtlas.getIfLoaded() != null)
+                        break;
+                    decodeAndCache(Card.getImageResource(mImages[face]));
+                }
+            }
+
+            OnPreloadedListener listener = mOnPreloadedListener;
+            if (listener != null)
+                listener.onPreloaded();
+        }
+    };
+
+    public Bitmap get(int resourceId) {
+        return mCache.get(resourceId);
+    }
+
+    private synchronized Bitmap decodeAndCache(int resourceId) {
+        Bitmap bitmap = mCache.get(resourceId);
+        if (bitmap == null && mWidth > 0 && mHeight > 0) {
+            bitmap = decode(resourceId);
+            if (bitmap != null)
+                mCache.put(resourceId, bitmap);
+        }
+
+        return bitmap;
+    }
+
+    private Bitmap decode(int resourceId) {
+        // Read the image size, then pick the largest power-of-two downsampling that still
+        // covers the slot:
+        mOptions.inJustDecodeBounds = true;
+        mOptions.inSampleSize = 1;
+        mOptions.inBitmap = null;
+        BitmapFactory.decodeResource(mResources, resourceId, mOptions);
+
+        int sampleSize = 1;
+        while (mOptions.outWidth / (sampleSize * 2) >= mWidth
+                && mOptions.outHeight / (sampleSize * 2) >= mHeight)
+            sampleSize *= 2;
+
+        mOptions.inJustDecodeBounds = false;
+        mOptions.inSampleSize = sampleSize;
+        mOptions.inMutable = true;
+        mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        mOptions.inBitmap = canReuseScratch(mOptions.outWidth / sampleSize,
+                                            mOptions.outHeight / sampleSize, sampleSize)
+                ? mScratch : null;
+
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeResource(mResources, resourceId, mOptions);
+        } catch (IllegalArgumentException e) {
+            // The scratch bitmap couldn't be reused after all:
+            mOptions.inBitmap = null;
+            decoded = BitmapFactory.decodeResource(mResources, resourceId, mOptions);
+        }
+
+        if (decoded == null) {
+            Log.e(TAG, "Failed to decode card image " + resourceId);
+            return null;
+        }
+        mScratch = decoded;
+
+        // Flatten the image, fit and centered, onto an opaque slot-sized bitmap:
+        Bitmap slot = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.RGB_565);
+        Canvas canvas = new Canvas(slot);
+        canvas.drawColor(mBackgroundColor);
+
+        float scale = Math.min((float) mWidth / decoded.getWidth(),
+                               (float) mHeight / decoded.getHeight());
+        int width = Math.round(decoded.getWidth() * scale);
+        int height = Math.round(decoded.getHeight() * scale);
+        mDestination.set((mWidth - width) / 2, (mHeight - height) / 2,
+                         (mWidth + width) / 2, (mHeight + height) / 2);
+        canvas.drawBitmap(decoded, null, mDestination, mPaint);
+
+        return slot;
+    }
+
+    private boolean canReuseScratch(int width, int height, int sampleSize) {
+        if (mScratch == null)
+            return false;
+
+        // Before KitKat, inBitmap only works for identically sized, unsampled images:
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return mScratch.getAllocationByteCount() >= width * height * 4;
+        else
+            return sampleSize == 1
+                    && mScratch.getWidth() == width && mScratch.getHeight() == height;
+    }
+}
@@ -0,0 +1,267 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Renders a board as one Card view per board position, laid out directly in a grid by logical
+ * row and column. Changing the orientation just transposes the grid in onLayout(), so rotating
+ * costs a single layout pass and never adds or removes views; the card size is cached per
+ * orientation.
+ */
+class CardGridView extends ViewGroup implements BoardRenderer {
+    private static final String TAG = "CardGridView";
+
+    private final int CARD_MARGIN = Math.round(getResources().getDimension(R.dimen.card_margin));
+
+    // Every card built so far, by position. They're kept when the board shrinks, so changing
+    // its size only attaches or detaches the difference:
+    private final Card[] mCards = new Card[GameEngine.MAX_CARDS];
+    private final CardFaceCache mFaceCache;
+    private final CardAnimationEngine mAnimations;
+    private OnCardTouchListener mOnCardTouchListener;
+
+    private int mNumRows = 0;
+    private int mNumCols = 0;
+    private boolean mTransposed;
+
+    // The last measured board size and the card size it gave, per orientation:
+    private final int[] mMeasuredWidth = new int[2];
+    private final int[] mMeasuredHeight = new int[2];
+    private final int[] mCardWidth = new int[2];
+    private final int[] mCardHeight = new int[2];
+
+
+    public CardGridView(Context context) {
+        super(context);
+        setClipChildren(false);
+        mFaceCache = new CardFaceCache(context);
+        mFaceCache.setOnPreloadedListener(new CardFaceCache.OnPreloadedListener() {
+            @Override
+            public void onPreloaded() {
+                post(mRebindImages);
+            }
+        });
+        mAnimations = new CardAnimationEngine(context, mAnimationTarget);
+    }
+
+    @Override
+    public View getView() {
+        return this;
+    }
+
+    @Override
+    public void setOnCardTouchListener(OnCardTouchListener listener) {
+        mOnCardTouchListener = listener;
+    }
+
+    @Override
+    public void onPause() {
+    }
+
+    @Override
+    public void onResume() {
+    }
+
+    @Override
+    public void build(int numRows, int numCols) {
+        mAnimations.cancelAll();
+        mNumRows = numRows;
+        mNumCols = numCols;
+        mTransposed = getResources().getConfiguration().orientation
+                == Configuration.ORIENTATION_PORTRAIT;
+        clearMeasureCache();
+
+        // Cards are attached in position order, so only the tail changes:
+        int numCards = numRows * numCols;
+        if (getChildCount() > numCards)
+            removeViews(numCards, getChildCount() - numCards);
+
+        for (int position = getChildCount(); position < numCards; position++)
+            addView(getCard(position));
+
+        for (int position = 0; position < numCards; position++)
+            mCards[position].setPosition(position);
+
+        requestLayout();
+    }
+
+    private Card getCard(int position) {
+        if (mCards[position] == null) {
+            Card card = new Card(getContext());
+            card.setFaceCache(mFaceCache);
+            card.setAnimationEngine(mAnimations);
+            card.setOnTouchListener(cardOnTouchListener);
+            mCards[position] = card;
+        }
+
+        return mCards[position];
+    }
+
+    @Override
+    public void prepareFaces(int[] images, int numFaces) {
+        mFaceCache.preload(images, numFaces);
+    }
+
+    private final Runnable mRebindImages = new Runnable() {
+        @Override
+        public void run() {
+            for (int position = 0; position < getChildCount(); position++)
+                mCards[position].rebindImage();
+        }
+    };
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+        int height = getDefaultSize(getSuggestedMinimumHeight(), heightMeasureSpec);
+        setMeasuredDimension(width, height);
+        if (mNumRows == 0)
+            return;
+
+        int orientation = mTransposed ? 1 : 0;
+        if (width != mMeasuredWidth[orientation] || height != mMeasuredHeight[orientation]) {
+            mMeasuredWidth[orientation] = width;
+            mMeasuredHeight[orientation] = height;
+            mCardWidth[orientation] = Math.max(0, cellWidth() - 2 * CARD_MARGIN);
+            mCardHeight[orientation] = Math.max(0, cellHeight() - 2 * CARD_MARGIN);
+        }
+
+        // Cards whose size hasn't changed skip their own measuring:
+        int cardWidthSpec = MeasureSpec.makeMeasureSpec(mCardWidth[orientation],
+                                                        MeasureSpec.EXACTLY);
+        int cardHeightSpec = MeasureSpec.makeMeasureSpec(mCardHeight[orientation],
+                                                         MeasureSpec.EXACTLY);
+        for (int i = 0; i < getChildCount(); i++)
+            getChildAt(i).measure(cardWidthSpec, cardHeightSpec);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        if (mNumRows == 0)
+            return;
+
+        int cellWidth = cellWidth();
+        int cellHeight = cellHeight();
+        for (int position = 0; position < getChildCount(); position++) {
+            int row = position / mNumCols;
+            int col = position % mNumCols;
+            int left = getPaddingLeft() + (mTransposed ? row : col) * cellWidth + CARD_MARGIN;
+            int top = getPaddingTop() + (mTransposed ? col : row) * cellHeight + CARD_MARGIN;
+
+            View card = getChildAt(position);
+            card.layout(left, top, left + card.getMeasuredWidth(), top + card.getMeasuredHeight());
+        }
+
+        // Card images are decoded at the size of a card's content area:
+        Card card = mCards[0];
+        int width = card.getMeasuredWidth() - card.getPaddingLeft() - card.getPaddingRight();
+        int height = card.getMeasuredHeight() - card.getPaddingTop() - card.getPaddingBottom();
+        mFaceCache.setSlotSize(width, height);
+    }
+
+    private int cellWidth() {
+        int screenCols = mTransposed ? mNumRows : mNumCols;
+        return (getMeasuredWidth() - getPaddingLeft() - getPaddingRight()) / screenCols;
+    }
+
+    private int cellHeight() {
+        int screenRows = mTransposed ? mNumCols : mNumRows;
+        return (getMeasuredHeight() - getPaddingTop() - getPaddingBottom()) / screenRows;
+    }
+
+    private void clearMeasureCache() {
+        // A new board size invalidates the card sizes of both orientations:
+        for (int orientation = 0; orientation < 2; orientation++) {
+            mMeasuredWidth[orientation] = 0;
+            mMeasuredHeight[orientation] = 0;
+        }
+    }
+
+    @Override
+    public void flipOrientation() {
+        Log.d(TAG, "Flipping board");
+
+        mTransposed = !mTransposed;
+        requestLayout();
+    }
+
+    @Override
+    public void showBack(int position) {
+        mCards[position].showBack();
+    }
+
+    @Override
+    public void hide(int position) {
+        mAnimations.cancel(position);
+        mCards[position].hide();
+    }
+
+    @Override
+    public void flipToFront(int position, int face) {
+        mCards[position].setValue(face);
+        mCards[position].flipToFront();
+    }
+
+    @Override
+    public void flipToBack(int position) {
+        mCards[position].flipToBack();
+    }
+
+    @Override
+    public void remove(int position) {
+        mCards[position].remove();
+    }
+
+    private final CardAnimationEngine.Target mAnimationTarget = new CardAnimationEngine.Target() {
+        @Override
+        public void onCardFrame(int position, float rotationY, float scale) {
+            Card card = mCards[position];
+            card.setRotationY(rotationY);
+            card.setScaleX(scale);
+            card.setScaleY(scale);
+        }
+
+        @Override
+        public void onFrameDone() {
+        }
+
+        @Override
+        public void onFlipHalfway(int position) {
+            mCards[position].onFlipHalfway();
+        }
+
+        @Override
+        public void onAnimationStart(int position, int animation) {
+            mCards[position].startAnimating();
+        }
+
+        @Override
+        public void onAnimationEnd(int position, int animation) {
+            if (animation == CardAnimationEngine.ANIM_REMOVE)
+                mCards[position].setVisibility(View.INVISIBLE);
+            mCards[position].stopAnimating();
+        }
+    };
+
+    private final View.OnTouchListener cardOnTouchListener = new View.OnTouchListener() {
+        @Override
+        public boolean onTouch(View v, MotionEvent event) {
+            // Return true to consume the event, false to pass it on for further handling.
+
+            // Ignore everything but down events
+            if (event.getAction() != MotionEvent.ACTION_DOWN)
+                return true;
+
+            if (mOnCardTouchListener != null)
+                mOnCardTouchListener.onCardTouched(((Card) v).getPosition(),
+                                                   event.getEventTime());
+
+            return true;
+        }
+    };
+}
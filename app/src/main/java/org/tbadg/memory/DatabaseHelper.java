@@ -1,12 +1,19 @@
 package org.tbadg.memory;
 
+import android.annotation.TargetApi;
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
 class DatabaseHelper extends SQLiteOpenHelper {
+    private static final String TAG = "DatabaseHelper";
+
     private static final String DATABASE_NAME = "scores.db";
-    private static final int SCHEMA = 1;
+    private static final int SCHEMA = 4;
 
     static public final String TABLE = "scores";
     static public final String SCORE = "score";
@@ -14,22 +21,160 @@ class DatabaseHelper extends SQLiteOpenHelper {
     static public final String GUESSES = "guesses";
     static public final String ELAPSED_TIME = "elapsedTime";
 
+    // Running totals of the scores for each number of matches, kept up to date by ScoreWriter:
+    static public final String STATS_TABLE = "stats";
+    static public final String GAMES = "games";
+    static public final String SCORE_SUM = "scoreSum";
+    static public final String BEST_SCORE = "bestScore";
+    static public final String TIME_SUM = "timeSum";
+    static public final String BEST_TIME = "bestTime";
+    static public final String AVERAGE_SCORE = "averageScore";
+    static public final String AVERAGE_TIME = "averageTime";
+
+    // How many games got each score, as a serialized ScoreHistogram:
+    static public final String SCORE_HISTOGRAM = "scoreHistogram";
+
+    static final String INDEX_BY_SCORE = "scores_by_score";
+    static final String INDEX_BY_MATCHES = "scores_by_matches";
+
+    interface Migration {
+        // Runs inside the upgrade's transaction:
+        void migrate(SQLiteDatabase db);
+    }
+
+    // MIGRATIONS[n] upgrades a database from version n + 1 to n + 2. Every schema change is
+    // added here, so new installs and upgraded ones end up with the same schema:
+    private static final Migration[] MIGRATIONS = {
+            // 2: Indexes for the top scores overall and for a number of matches:
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + INDEX_BY_SCORE + " ON " + TABLE
+                                       + " (" + SCORE + " DESC);");
+                    db.execSQL("CREATE INDEX " + INDEX_BY_MATCHES + " ON " + TABLE
+                                       + " (" + MATCHES + ", " + SCORE + " DESC);");
+                }
+            },
+
+            // 3: Per-size statistics, filled in from the scores so far:
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + STATS_TABLE + " ("
+                                       + MATCHES + " integer PRIMARY KEY, "
+                                       + GAMES + " integer, "
+                                       + SCORE_SUM + " integer, "
+                                       + BEST_SCORE + " integer, "
+                                       + TIME_SUM + " integer, "
+                                       + BEST_TIME + " integer);");
+                    db.execSQL("INSERT INTO " + STATS_TABLE + " SELECT " + MATCHES + ", count(*), "
+                                       + "sum(" + SCORE + "), max(" + SCORE + "), "
+                                       + "sum(" + ELAPSED_TIME + "), min(" + ELAPSED_TIME + ")"
+                                       + " FROM " + TABLE + " GROUP BY " + MATCHES + ";");
+                }
+            },
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, SCHEMA);
+            // 4: Per-size score histograms, built from the scores so far:
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + STATS_TABLE + " ADD COLUMN "
+                                       + SCORE_HISTOGRAM + " blob;");
+
+                    ScoreHistogram[] histograms
+                            = new ScoreHistogram[MemoryActivity.MAX_MATCHES + 1];
+                    Cursor cursor = db.rawQuery("SELECT " + MATCHES + ", " + SCORE + ", count(*)"
+                                                        + " FROM " + TABLE + " GROUP BY "
+                                                        + MATCHES + ", " + SCORE, null);
+                    try {
+                        while (cursor.moveToNext()) {
+                            int matches = cursor.getInt(0);
+                            if (matches < 0 || matches >= histograms.length)
+                                continue;
+                            if (histograms[matches] == null)
+                                histograms[matches] = new ScoreHistogram();
+                            histograms[matches].add(cursor.getInt(1), cursor.getInt(2));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+
+                    for (int matches = 0; matches < histograms.length; matches++) {
+                        if (histograms[matches] == null)
+                            continue;
+                        ContentValues values = new ContentValues();
+                        values.put(SCORE_HISTOGRAM, histograms[matches].toBytes());
+                        db.update(STATS_TABLE, values, MATCHES + " = " + matches, null);
+                    }
+                }
+            }
+    };
+
+    // The process shares one database connection; it's never closed:
+    private static DatabaseHelper sInstance = null;
+
+
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new DatabaseHelper(context.getApplicationContext(), DATABASE_NAME);
+        return sInstance;
+    }
+
+    DatabaseHelper(Context context, String name) {
+        super(context, name, null, SCHEMA);
+
+        // Scores are written while the scores list may be reading, so use write-ahead logging:
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            useWriteAheadLogging();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void useWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly())
+            db.enableWriteAheadLogging();
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // The original schema, brought up to date by the migrations:
         db.execSQL("CREATE TABLE " + TABLE + " ("
                 + SCORE + " integer, "
                 + MATCHES + " integer, "
                 + GUESSES + " integer, "
                 + ELAPSED_TIME + " integer);");
+
+        migrate(db, 1, SCHEMA);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        throw new RuntimeException("No upgrade possible?");
+        Log.d(TAG, String.format("Upgrading scores from version %d to %d", oldVersion, newVersion));
+        migrate(db, oldVersion, newVersion);
+    }
+
+    public Cursor queryStats() {
+        // One row per number of matches played, fewest first:
+        return getReadableDatabase().rawQuery(
+                "SELECT " + MATCHES + ", " + GAMES + ", " + BEST_SCORE + ", " + BEST_TIME + ", "
+                        + SCORE_SUM + " * 1.0 / " + GAMES + " AS " + AVERAGE_SCORE + ", "
+                        + TIME_SUM + " * 1.0 / " + GAMES + " AS " + AVERAGE_TIME
+                        + " FROM " + STATS_TABLE + " ORDER BY " + MATCHES, null);
+    }
+
+    static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        if (fromVersion < 1 || toVersion > MIGRATIONS.length + 1)
+            throw new IllegalArgumentException(
+                    String.format("Can't migrate scores from version %d to %d.",
+                                  fromVersion, toVersion));
+
+        for (int version = fromVersion; version < toVersion; version++)
+            MIGRATIONS[version - 1].migrate(db);
     }
 }
@@ -0,0 +1,157 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Records gameplay diagnostics as fixed-size binary records (event, time and two int
+ * arguments) in a preallocated ring buffer, so tracing a tap or a frame costs no strings or
+ * allocations. The newest MAX_RECORDS events are kept; write() saves them with their event
+ * names, and decode() turns a saved file back into text offline.
+ *
+ * Recording is thread-safe. record() only records in debug builds, and ProGuard strips its
+ * calls from release builds altogether; append() always records, so the buffer can be tested
+ * in any build.
+ */
+final class EventTrace {
+    private static final String TAG = "EventTrace";
+
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    // Events, as indexes into EVENT_NAMES:
+    public static final int TAP = 0;
+    public static final int FLIP_TO_FRONT = 1;
+    public static final int FLIP_TO_BACK = 2;
+    public static final int SOUND_LOADED = 3;
+    public static final int DROPPED_FRAMES = 4;
+    public static final int SLOW_FRAME = 5;
+    private static final String[] EVENT_NAMES = {
+            "tap(position, result)", "flip to front(position, face)",
+            "flip to back(position, face)", "sound loaded(soundId, status)",
+            "dropped frames(skipped, total)", "slow frame(operation, msecs)"};
+
+    public static final String FILE_NAME = "events.bin";
+    private static final int MAGIC = 0x45565452;  // "EVTR"
+    private static final int VERSION = 1;
+    private static final int MAX_RECORDS = 1024;
+
+    private static final int[] sEvents = new int[MAX_RECORDS];
+    private static final long[] sTimes = new long[MAX_RECORDS];
+    private static final int[] sArgs1 = new int[MAX_RECORDS];
+    private static final int[] sArgs2 = new int[MAX_RECORDS];
+    private static int sNext = 0;
+    private static int sNumRecords = 0;
+
+
+    private EventTrace() {
+    }
+
+    public static void record(int event, int arg1, int arg2) {
+        if (ENABLED)
+            append(event, arg1, arg2);
+    }
+
+    static synchronized void append(int event, int arg1, int arg2) {
+        sEvents[sNext] = event;
+        sTimes[sNext] = System.nanoTime();
+        sArgs1[sNext] = arg1;
+        sArgs2[sNext] = arg2;
+
+        sNext = (sNext + 1) % MAX_RECORDS;
+        sNumRecords = Math.min(sNumRecords + 1, MAX_RECORDS);
+    }
+
+    public static synchronized void clear() {
+        sNext = 0;
+        sNumRecords = 0;
+    }
+
+    public static void save(final Context context) {
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                File file = new File(context.getFilesDir(), FILE_NAME);
+                OutputStream out = null;
+
+                try {
+                    out = new BufferedOutputStream(new FileOutputStream(file));
+                    write(out);
+                    Log.d(TAG, "Wrote events to " + file);
+
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to write events", e);
+
+                } finally {
+                    if (out != null) {
+                        try {
+                            out.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+                return null;
+            }
+        }.execute();
+    }
+
+    public static synchronized void write(OutputStream stream) throws IOException {
+        // Header, event names, then the records oldest first:
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        out.writeInt(EVENT_NAMES.length);
+        for (String name : EVENT_NAMES)
+            out.writeUTF(name);
+
+        out.writeInt(sNumRecords);
+        int first = (sNext - sNumRecords + MAX_RECORDS) % MAX_RECORDS;
+        for (int i = 0; i < sNumRecords; i++) {
+            int record = (first + i) % MAX_RECORDS;
+            out.writeInt(sEvents[record]);
+            out.writeLong(sTimes[record]);
+            out.writeInt(sArgs1[record]);
+            out.writeInt(sArgs2[record]);
+        }
+
+        out.flush();
+    }
+
+    public static void decode(InputStream stream, Writer out) throws IOException {
+        // One line per record: milliseconds since the first record, the event and its arguments:
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("Not an event trace.");
+
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = in.readUTF();
+
+        int numRecords = in.readInt();
+        long start = 0;
+        for (int i = 0; i < numRecords; i++) {
+            int event = in.readInt();
+            long time = in.readLong();
+            int arg1 = in.readInt();
+            int arg2 = in.readInt();
+
+            if (i == 0)
+                start = time;
+            String name = event >= 0 && event < names.length ? names[event] : "#" + event;
+            out.write(String.format("%10.3f %s %d %d\n", (time - start) / 1e6, name, arg1, arg2));
+        }
+
+        out.flush();
+    }
+}
@@ -0,0 +1,215 @@
+package org.tbadg.memory;
+
+import java.util.Random;
+
+/**
+ * The rules of the game, independent of any views. Cards are identified by their position on
+ * the board (row * columns + column) and the engine only deals in primitives, so picking a card
+ * never allocates. Board owns an instance and just renders whatever the engine decides.
+ */
+class GameEngine {
+
+    // Position value meaning "no card picked":
+    public static final int NO_CARD = -1;
+
+    // Face value of a position that holds no card (an empty spot on an uneven board):
+    public static final int EMPTY = -1;
+
+    // The removed-card bitset is a single long, which bounds the size of a board:
+    public static final int MAX_CARDS = 64;
+
+    // Faces are drawn from a pool of at most this many card images:
+    public static final int MAX_IMAGES = MAX_CARDS / 2;
+
+    // Results of pick():
+    public static final int PICK_IGNORED = 0;
+    public static final int PICK_FIRST = 1;
+    public static final int PICK_MATCH = 2;
+    public static final int PICK_NO_MATCH = 3;
+    public static final int PICK_WIN = 4;
+
+    private static final double SCORE_SCALE = 150.0;
+
+    // Scores range from 0 to MAX_SCORE, for finding every match in the fewest guesses:
+    public static final int MAX_SCORE = (int) SCORE_SCALE;
+
+    private final int[] mFaces = new int[MAX_CARDS];
+    private final int[] mDeck = new int[MAX_CARDS];
+    private final int[] mImages = new int[MAX_IMAGES];
+    private long mRemoved;
+    private Random mRandom = new Random();
+
+    private int mNumCards;
+    private int mNumMatches;
+    private int mMatchesShown;
+    private int mGuessesMade;
+
+    private int mFirstPick = NO_CARD;
+    private int mSecondPick = NO_CARD;
+
+
+    //
+    // Setting up a game:
+    //
+
+    public void newGame(int numMatches, int numCards) {
+        if (numCards < numMatches * 2 || numCards > MAX_CARDS)
+            throw new IllegalArgumentException(
+                    String.format("Can't fit %d matches into %d cards.", numMatches, numCards));
+
+        mNumMatches = numMatches;
+        mNumCards = numCards;
+        mMatchesShown = numMatches;
+        mGuessesMade = 0;
+        mRemoved = 0;
+        mFirstPick = NO_CARD;
+        mSecondPick = NO_CARD;
+
+        for (int i = 0; i < MAX_CARDS; i++)
+            mFaces[i] = EMPTY;
+    }
+
+    public void setFace(int position, int face) {
+        mFaces[position] = face;
+    }
+
+    public void setRandom(Random random) {
+        // Lets tests (and replays) deal reproducible boards from a seeded generator:
+        mRandom = random;
+    }
+
+    public void deal(int numMatches, int numRows, int numCols) {
+        newGame(numMatches, numRows * numCols);
+
+        // Build a deck with two copies of each possible card value and shuffle it in place
+        // (Fisher-Yates), e.g. 3 matches == { 0, 0, 1, 1, 2, 2 }:
+        int deckSize = numMatches * 2;
+        for (int i = 0; i < deckSize; i++)
+            mDeck[i] = i / 2;
+
+        for (int i = deckSize - 1; i > 0; i--) {
+            int j = mRandom.nextInt(i + 1);
+            int tmp = mDeck[i];
+            mDeck[i] = mDeck[j];
+            mDeck[j] = tmp;
+        }
+
+        // Deal the deck out, skipping two corners or the middle space if there are too few
+        // cards to fill the board:
+        int emptySpots = mNumCards - deckSize;
+        int next = 0;
+        for (int i = 0; i < numRows; i++) {
+            for (int j = 0; j < numCols; j++) {
+                if ((emptySpots == 2 && j == numCols - 1 && (i == 0 || i == numRows - 1))
+                        || (emptySpots == 1 && i == numRows / 2 && j == numCols / 2))
+                    continue;
+
+                mFaces[i * numCols + j] = mDeck[next++];
+            }
+        }
+    }
+
+    public void shuffleImages(int numImages) {
+        // Pick which card image each face shows, as a random permutation of the image pool:
+        if (numImages > MAX_IMAGES)
+            throw new IllegalArgumentException(
+                    String.format("Can't choose from more than %d images.", MAX_IMAGES));
+
+        for (int i = 0; i < numImages; i++)
+            mImages[i] = i;
+
+        for (int i = numImages - 1; i > 0; i--) {
+            int j = mRandom.nextInt(i + 1);
+            int tmp = mImages[i];
+            mImages[i] = mImages[j];
+            mImages[j] = tmp;
+        }
+    }
+
+
+    //
+    // Playing:
+    //
+
+    public int pick(int position) {
+        // Don't allow the same card, a removed card, an empty spot or more than two cards:
+        if (mSecondPick != NO_CARD || position == mFirstPick
+                || position < 0 || position >= mNumCards
+                || mFaces[position] == EMPTY || isRemoved(position))
+            return PICK_IGNORED;
+
+        if (mFirstPick == NO_CARD) {
+            mFirstPick = position;
+            return PICK_FIRST;
+        }
+
+        mSecondPick = position;
+        mGuessesMade++;
+
+        if (mFaces[mFirstPick] != mFaces[mSecondPick])
+            return PICK_NO_MATCH;
+
+        mRemoved |= (1L << mFirstPick) | (1L << mSecondPick);
+        return --mMatchesShown <= 0 ? PICK_WIN : PICK_MATCH;
+    }
+
+    public void endTurn() {
+        // Called once the outcome of the second pick has been shown:
+        mFirstPick = NO_CARD;
+        mSecondPick = NO_CARD;
+    }
+
+
+    //
+    // State queries:
+    //
+
+    public int getFace(int position) {
+        return mFaces[position];
+    }
+
+    public int getImage(int face) {
+        return mImages[face];
+    }
+
+    public int[] getImages() {
+        // The engine's own array, so a renderer can switch to a new game's images by reference:
+        return mImages;
+    }
+
+    public boolean isRemoved(int position) {
+        return (mRemoved & (1L << position)) != 0;
+    }
+
+    public int getFirstPick() {
+        return mFirstPick;
+    }
+
+    public int getSecondPick() {
+        return mSecondPick;
+    }
+
+    public int getNumCards() {
+        return mNumCards;
+    }
+
+    public int getNumMatches() {
+        return mNumMatches;
+    }
+
+    public int getMatchesShown() {
+        return mMatchesShown;
+    }
+
+    public int getGuessesMade() {
+        return mGuessesMade;
+    }
+
+    public boolean isWon() {
+        return mNumMatches > 0 && mMatchesShown <= 0;
+    }
+
+    public int getScore() {
+        return mGuessesMade > 0 ? (int) (SCORE_SCALE * mNumMatches / mGuessesMade + 0.5) : 0;
+    }
+}
@@ -0,0 +1,145 @@
+package org.tbadg.memory;
+
+/**
+ * The rules of play on a board: what a tap on a card does, and the delayed actions that follow
+ * (flipping a missed pair back, removing a matched pair, announcing a win). Everything the
+ * player sees and hears goes through a Listener and all delays through a GameTimeline, so the
+ * whole tap path runs without any views.
+ *
+ * Not thread-safe; taps and timeline actions all happen on the same thread.
+ */
+class GamePlay {
+    private static final int CARDS_MATCHED_TIMEOUT_IN_MILLIS = Card.CARD_FLIP_MSECS;
+    private static final int NO_MATCH_TIMEOUT_IN_MILLIS = (int) (Card.CARD_FLIP_MSECS * 1.33);
+    private static final int WINNER_NOTIFICATION_DELAY_IN_MILLIS = Card.CARD_FLIP_MSECS * 2;
+
+    interface Listener {
+        void onFlipToFront(int position, int face);
+
+        void onFlipToBack(int position);
+
+        // Shows the card face down right away, without a flip:
+        void onShowBack(int position);
+
+        void onRemove(int position);
+
+        void onSound(SoundsEffects.Type type);
+
+        void onWin();
+    }
+
+    private final GameTimeline mTimeline;
+    private final Listener mListener;
+    private GameEngine mEngine;
+    private long mStartTime;
+
+    // In turbo mode, tapping a third card doesn't wait for a missed pair to flip back:
+    private boolean mTurbo = false;
+
+
+    public GamePlay(GameTimeline timeline, Listener listener) {
+        mTimeline = timeline;
+        mListener = listener;
+    }
+
+    public void start(GameEngine engine) {
+        // Nothing still pending from the previous game may touch the new one:
+        mTimeline.newGeneration();
+        mEngine = engine;
+    }
+
+    public void stop() {
+        mTimeline.newGeneration();
+    }
+
+    public long getStartTime() {
+        // When the first card of the game was picked, in System.currentTimeMillis() time:
+        return mStartTime;
+    }
+
+    public void setTurbo(boolean turbo) {
+        mTurbo = turbo;
+    }
+
+    public boolean isTurbo() {
+        return mTurbo;
+    }
+
+    public void onCardTouched(int position, long eventTime) {
+        TapLatency.onTap(eventTime);
+        if (mTurbo && mTimeline.cancel(flipCards))
+            snapCardsBack();
+
+        // The engine ignores the same card or more than two cards:
+        int result = mEngine.pick(position);
+        EventTrace.record(EventTrace.TAP, position, result);
+        if (result == GameEngine.PICK_IGNORED)
+            return;
+
+        mListener.onFlipToFront(position, mEngine.getFace(position));
+        mListener.onSound(SoundsEffects.Type.FLIP);
+        TapLatency.onFlipStarted(position);
+
+        if (result == GameEngine.PICK_FIRST) {
+            if (mEngine.getGuessesMade() == 0)
+                mStartTime = System.currentTimeMillis();
+
+            return;
+        }
+
+        if (result == GameEngine.PICK_NO_MATCH)
+            doNoMatch();
+        else
+            doMatch(result == GameEngine.PICK_WIN);
+    }
+
+    private void doMatch(boolean won) {
+        mTimeline.schedule(removeCards, GameSpeed.scale(CARDS_MATCHED_TIMEOUT_IN_MILLIS));
+        mListener.onSound(SoundsEffects.Type.MATCH);
+
+        if (won)
+            mTimeline.schedule(showWin, GameSpeed.scale(WINNER_NOTIFICATION_DELAY_IN_MILLIS));
+    }
+
+    private void doNoMatch() {
+        mTimeline.schedule(flipCards, GameSpeed.scale(NO_MATCH_TIMEOUT_IN_MILLIS));
+        mListener.onSound(SoundsEffects.Type.NO_MATCH);
+    }
+
+    private void snapCardsBack() {
+        // Show the missed pair face down right away, ending the turn early:
+        mListener.onShowBack(mEngine.getFirstPick());
+        mListener.onShowBack(mEngine.getSecondPick());
+
+        mEngine.endTurn();
+    }
+
+    private final Runnable removeCards = new Runnable() {
+        @Override
+        public void run() {
+            // Hide selected cards
+            mListener.onRemove(mEngine.getFirstPick());
+            mListener.onRemove(mEngine.getSecondPick());
+
+            mEngine.endTurn();
+        }
+    };
+
+    private final Runnable flipCards = new Runnable() {
+        @Override
+        public void run() {
+            // Flip selected cards
+            mListener.onFlipToBack(mEngine.getFirstPick());
+            mListener.onFlipToBack(mEngine.getSecondPick());
+
+            mEngine.endTurn();
+        }
+    };
+
+    private final Runnable showWin = new Runnable() {
+        @Override
+        public void run() {
+            mListener.onWin();
+        }
+    };
+}
@@ -0,0 +1,80 @@
+package org.tbadg.memory;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Build;
+import android.provider.Settings;
+
+/**
+ * How fast the game plays. Every timing derived from Card.CARD_FLIP_MSECS (the card animations
+ * and the board's delays between them) is multiplied by the chosen speed profile. The card
+ * animations are also multiplied by the system's animator duration scale, so "Remove animations"
+ * in the developer or accessibility settings is honoured too. The delays aren't: they give the
+ * player time to see a missed pair, which animations being off doesn't take away.
+ */
+final class GameSpeed {
+
+    // Speed profiles, in menu order:
+    public static final int RELAXED = 0;
+    public static final int NORMAL = 1;
+    public static final int FAST = 2;
+
+    private static final float[] PROFILE_SCALES = {1.5f, 1f, 0.5f};
+
+    private static int sProfile = NORMAL;
+    private static float sSystemScale = 1f;
+
+
+    private GameSpeed() {
+    }
+
+    public static void setProfile(int profile) {
+        sProfile = profile >= 0 && profile < PROFILE_SCALES.length ? profile : NORMAL;
+        apply();
+    }
+
+    public static int getProfile() {
+        return sProfile;
+    }
+
+    public static void readSystemScale(Context context) {
+        // The user can change the system setting at any time, so it's read on every resume:
+        ContentResolver resolver = context.getContentResolver();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1)
+            setSystemScale(readGlobalScale(resolver));
+        else
+            //noinspection deprecation
+            setSystemScale(Settings.System.getFloat(
+                    resolver, Settings.System.ANIMATOR_DURATION_SCALE, 1f));
+    }
+
+    static void setSystemScale(float scale) {
+        sSystemScale = scale;
+        apply();
+    }
+
+    public static int scale(int msecs) {
+        // Game delays, which only the speed profile changes:
+        return Math.round(msecs * PROFILE_SCALES[sProfile]);
+    }
+
+    public static float getDurationScale() {
+        // Card animations:
+        return PROFILE_SCALES[sProfile] * sSystemScale;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static float readGlobalScale(ContentResolver resolver) {
+        return Settings.Global.getFloat(resolver, Settings.Global.ANIMATOR_DURATION_SCALE, 1f);
+    }
+
+    private static void apply() {
+        // Animations run faster as durations shrink. A scale of 0 ("Animation off") jumps them
+        // to their end state on their first frame, as no speed-up could: that frame is 0 msecs
+        // into the animation.
+        float durationScale = getDurationScale();
+        CardAnimationEngine.setTimeScale(durationScale > 0f ? 1f / durationScale
+                                                            : CardAnimationEngine.INSTANT);
+    }
+}
@@ -0,0 +1,158 @@
+package org.tbadg.memory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Delayed game actions (removing matched cards, flipping missed ones back, announcing a win) for
+ * one board. Every action belongs to the game generation it was scheduled in; starting a new
+ * generation drops everything still pending in one go, so nothing from an old game can run
+ * against a new or rebuilt board.
+ *
+ * However many actions are pending, at most one wake-up is queued with the clock. Time comes
+ * from a Clock, so tests can drive the timeline deterministically.
+ */
+class GameTimeline {
+
+    // A board never has more than a handful of actions pending at once:
+    private static final int MAX_ACTIONS = 8;
+
+    interface Clock {
+        long now();
+
+        // Asks for tick to be run at the given time, replacing any earlier request:
+        void wakeAt(Runnable tick, long time);
+
+        void cancelWake(Runnable tick);
+    }
+
+    private final Clock mClock;
+
+    // Pending actions, in the order they were scheduled:
+    private final Runnable[] mActions = new Runnable[MAX_ACTIONS];
+    private final long[] mDueTimes = new long[MAX_ACTIONS];
+    private final int[] mGenerations = new int[MAX_ACTIONS];
+    private int mNumActions = 0;
+    private int mGeneration = 0;
+
+
+    public GameTimeline(Clock clock) {
+        mClock = clock;
+    }
+
+    public void newGeneration() {
+        // Cancels everything pending:
+        mGeneration++;
+        for (int i = 0; i < mNumActions; i++)
+            mActions[i] = null;
+        mNumActions = 0;
+
+        mClock.cancelWake(mTick);
+    }
+
+    public void schedule(Runnable action, long delayMsecs) {
+        if (mNumActions == MAX_ACTIONS)
+            throw new IllegalStateException("Too many pending game actions.");
+
+        mActions[mNumActions] = action;
+        mDueTimes[mNumActions] = mClock.now() + delayMsecs;
+        mGenerations[mNumActions] = mGeneration;
+        mNumActions++;
+
+        scheduleWake();
+    }
+
+    public boolean cancel(Runnable action) {
+        boolean cancelled = false;
+        for (int i = mNumActions - 1; i >= 0; i--) {
+            if (mActions[i] == action) {
+                removeAt(i);
+                cancelled = true;
+            }
+        }
+
+        scheduleWake();
+        return cancelled;
+    }
+
+    private void runDueActions() {
+        long now = mClock.now();
+
+        // Run the earliest due action, oldest first on ties, until none are due. An action may
+        // schedule more actions or start a new generation:
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < mNumActions; i++)
+                if (mDueTimes[i] <= now && (next < 0 || mDueTimes[i] < mDueTimes[next]))
+                    next = i;
+
+            if (next < 0)
+                break;
+
+            Runnable action = mActions[next];
+            boolean current = mGenerations[next] == mGeneration;
+            removeAt(next);
+
+            if (current)
+                action.run();
+        }
+
+        scheduleWake();
+    }
+
+    private void removeAt(int index) {
+        mNumActions--;
+        for (int i = index; i < mNumActions; i++) {
+            mActions[i] = mActions[i + 1];
+            mDueTimes[i] = mDueTimes[i + 1];
+            mGenerations[i] = mGenerations[i + 1];
+        }
+        mActions[mNumActions] = null;
+    }
+
+    private void scheduleWake() {
+        if (mNumActions == 0) {
+            mClock.cancelWake(mTick);
+            return;
+        }
+
+        long earliest = mDueTimes[0];
+        for (int i = 1; i < mNumActions; i++)
+            earliest = Math.min(earliest, mDueTimes[i]);
+
+        mClock.wakeAt(mTick, earliest);
+    }
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            runDueActions();
+        }
+    };
+
+
+    //
+    // Clock of the UI thread's looper:
+    //
+
+    static class LooperClock implements Clock {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public long now() {
+            return SystemClock.uptimeMillis();
+        }
+
+        @Override
+        public void wakeAt(Runnable tick, long time) {
+            mHandler.removeCallbacks(tick);
+            mHandler.postAtTime(tick, time);
+        }
+
+        @Override
+        public void cancelWake(Runnable tick) {
+            mHandler.removeCallbacks(tick);
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package org.tbadg.memory;
+
+import android.animation.TimeInterpolator;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.opengl.GLSurfaceView;
+import android.opengl.GLUtils;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.AccelerateInterpolator;
+import android.view.animation.DecelerateInterpolator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Renders a board with OpenGL ES 1.x on GLSurfaceView's own render thread. Every card is two
+ * textured quads (background and image) cut from the CardAtlas texture, and flips are plain
+ * model-view rotations in the fixed-function pipeline, so animations keep running at full frame
+ * rate even while the UI thread is busy. The background is drawn nine-patch style, so its
+ * rounded corners keep their shape on cards of any aspect. Without an atlas, the cards are
+ * drawn as plain quads in the background's colour.
+ *
+ * Card state is written on the UI thread and read on the render thread under mLock. Each frame
+ * copies what it draws out under the lock and issues the GL calls outside it, so the UI thread
+ * never waits for a frame to be drawn. A card can be flipping and being removed at once.
+ */
+class GlBoardView extends GLSurfaceView implements BoardRenderer, GLSurfaceView.Renderer {
+    private static final String TAG = "GlBoardView";
+
+    private static final int STATE_HIDDEN = 0;
+    private static final int STATE_SHOWN = 1;
+    private static final int STATE_REMOVED = 2;
+
+    // Start time of an animation that isn't running:
+    private static final long INACTIVE = -1;
+
+    private static final int HALF_CARD_FLIP_MSECS = Card.CARD_FLIP_MSECS / 2;
+    private static final float HALF_CARD_FLIP_DEGREES = 90f;
+
+    // Matches the padding and border of card_bg:
+    private static final float CARD_IMAGE_INSET_DP = 3f;
+
+    // Covers card_bg's rounded corners and border, which are only ever drawn at their own size:
+    private static final float CARD_CORNER_DP = 6f;
+
+    // card_bg's fill, @color/beige:
+    private static final float CARD_RED = 0xfa / 255f;
+    private static final float CARD_GREEN = 0xeb / 255f;
+    private static final float CARD_BLUE = 0xd7 / 255f;
+
+    // Holo Light window background, shown between the cards:
+    private static final float CLEAR_RED = 0xf3 / 255f;
+    private static final float CLEAR_GREEN = 0xf3 / 255f;
+    private static final float CLEAR_BLUE = 0xf3 / 255f;
+
+    private static final int FLOAT_BYTES = 4;
+    private static final int QUAD_FLOATS = 8;
+    private static final int SHORT_BYTES = 2;
+
+    // The background's 3 x 3 patches, as a 4 x 4 grid of vertices and two triangles a patch:
+    private static final int GRID_SIZE = 4;
+    private static final int GRID_FLOATS = GRID_SIZE * GRID_SIZE * 2;
+    private static final int GRID_INDICES = (GRID_SIZE - 1) * (GRID_SIZE - 1) * 6;
+
+    private final int CARD_MARGIN = Math.round(getResources().getDimension(R.dimen.card_margin));
+    private final float mImageInset;
+    private final float mCorner;
+
+    private final TimeInterpolator mStartFlipInterpolator = new AccelerateInterpolator();
+    private final TimeInterpolator mFinishFlipInterpolator = new DecelerateInterpolator();
+    private final TimeInterpolator mRemoveInterpolator = new AccelerateDecelerateInterpolator();
+
+    private final Object mLock = new Object();
+
+    // Guarded by mLock:
+    private int mNumRows;
+    private int mNumCols;
+    private boolean mTransposed;
+    private final int[] mState = new int[GameEngine.MAX_CARDS];
+    private final int[] mCell = new int[GameEngine.MAX_CARDS];
+    private final int[] mPendingCell = new int[GameEngine.MAX_CARDS];
+    private final long[] mFlipStart = new long[GameEngine.MAX_CARDS];
+    private final long[] mRemoveStart = new long[GameEngine.MAX_CARDS];
+    private final boolean[] mFlipDrawn = new boolean[GameEngine.MAX_CARDS];
+
+    // Render thread only; the cards of the current frame, in drawing order:
+    private final float[] mFrameX = new float[GameEngine.MAX_CARDS];
+    private final float[] mFrameY = new float[GameEngine.MAX_CARDS];
+    private final float[] mFrameDegrees = new float[GameEngine.MAX_CARDS];
+    private final float[] mFrameScale = new float[GameEngine.MAX_CARDS];
+    private final int[] mFrameCell = new int[GameEngine.MAX_CARDS];
+    private final FloatBuffer mVertices;
+    private final FloatBuffer mTexCoords;
+    private final FloatBuffer mGridVertices;
+    private final FloatBuffer mGridTexCoords;
+    private final ShortBuffer mGridIndices;
+    private final float[] mGridX = new float[GRID_SIZE];
+    private final float[] mGridY = new float[GRID_SIZE];
+    private float mGridWidth = 0f;
+    private float mGridHeight = 0f;
+    private final int[] mTexture = new int[1];
+    private boolean mTextured = false;
+    private int mWidth;
+    private int mHeight;
+
+    private OnCardTouchListener mOnCardTouchListener;
+
+
+    public GlBoardView(Context context) {
+        super(context);
+        mImageInset = CARD_IMAGE_INSET_DP * getResources().getDisplayMetrics().density;
+
+        // A unit quad centered on the origin, drawn as a triangle strip:
+        mVertices = allocateFloats(QUAD_FLOATS);
+        mVertices.put(new float[] {-0.5f, -0.5f, 0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f});
+        mVertices.position(0);
+
+        // Texture coordinates of every atlas cell, in the same vertex order:
+        mTexCoords = allocateFloats(CardAtlas.NUM_CELLS * QUAD_FLOATS);
+        for (int cell = 0; cell < CardAtlas.NUM_CELLS; cell++) {
+            float u0 = (float) (cell % CardAtlas.COLS) / CardAtlas.COLS;
+            float v0 = (float) (cell / CardAtlas.COLS) / CardAtlas.ROWS;
+            float u1 = u0 + 1f / CardAtlas.COLS;
+            float v1 = v0 + 1f / CardAtlas.ROWS;
+            mTexCoords.put(new float[] {u0, v0, u1, v0, u0, v1, u1, v1});
+        }
+        mTexCoords.position(0);
+
+        // The background cell split at its corners. The atlas is drawn at the screen's density,
+        // so a corner is as many texels wide as it's drawn pixels:
+        mCorner = CARD_CORNER_DP * getResources().getDisplayMetrics().density;
+        float corner = Math.min(mCorner, CardAtlas.CELL_SIZE / 2f);
+        float u0 = (float) (CardAtlas.BACKGROUND_CELL % CardAtlas.COLS) / CardAtlas.COLS;
+        float v0 = (float) (CardAtlas.BACKGROUND_CELL / CardAtlas.COLS) / CardAtlas.ROWS;
+        float[] u = {u0, u0 + corner / CardAtlas.WIDTH,
+                     u0 + (CardAtlas.CELL_SIZE - corner) / CardAtlas.WIDTH,
+                     u0 + (float) CardAtlas.CELL_SIZE / CardAtlas.WIDTH};
+        float[] v = {v0, v0 + corner / CardAtlas.HEIGHT,
+                     v0 + (CardAtlas.CELL_SIZE - corner) / CardAtlas.HEIGHT,
+                     v0 + (float) CardAtlas.CELL_SIZE / CardAtlas.HEIGHT};
+        mGridTexCoords = allocateFloats(GRID_FLOATS);
+        for (int row = 0; row < GRID_SIZE; row++)
+            for (int col = 0; col < GRID_SIZE; col++)
+                mGridTexCoords.put(u[col]).put(v[row]);
+        mGridTexCoords.position(0);
+
+        mGridVertices = allocateFloats(GRID_FLOATS);
+        mGridIndices = ByteBuffer.allocateDirect(GRID_INDICES * SHORT_BYTES)
+                                 .order(ByteOrder.nativeOrder())
+                                 .asShortBuffer();
+        for (int row = 0; row < GRID_SIZE - 1; row++) {
+            for (int col = 0; col < GRID_SIZE - 1; col++) {
+                short topLeft = (short) (row * GRID_SIZE + col);
+                short bottomLeft = (short) (topLeft + GRID_SIZE);
+                mGridIndices.put(topLeft).put((short) (topLeft + 1)).put(bottomLeft);
+                mGridIndices.put((short) (topLeft + 1)).put((short) (bottomLeft + 1))
+                            .put(bottomLeft);
+            }
+        }
+        mGridIndices.position(0);
+
+        setRenderer(this);
+        setRenderMode(RENDERMODE_WHEN_DIRTY);
+    }
+
+
+    //
+    // BoardRenderer methods (UI thread):
+    //
+
+    @Override
+    public View getView() {
+        return this;
+    }
+
+    @Override
+    public void setOnCardTouchListener(OnCardTouchListener listener) {
+        mOnCardTouchListener = listener;
+    }
+
+    @Override
+    public void build(int numRows, int numCols) {
+        synchronized (mLock) {
+            mNumRows = numRows;
+            mNumCols = numCols;
+            mTransposed = getResources().getConfiguration().orientation
+                    == Configuration.ORIENTATION_PORTRAIT;
+
+            for (int i = 0; i < GameEngine.MAX_CARDS; i++) {
+                mState[i] = STATE_HIDDEN;
+                stopAnimations(i);
+            }
+        }
+        requestRender();
+    }
+
+    @Override
+    public void prepareFaces(int[] images, int numFaces) {
+        // Every face is already in the atlas texture.
+    }
+
+    @Override
+    public void flipOrientation() {
+        Log.d(TAG, "Flipping board");
+
+        synchronized (mLock) {
+            mTransposed = !mTransposed;
+        }
+        requestRender();
+    }
+
+    @Override
+    public void showBack(int position) {
+        synchronized (mLock) {
+            mState[position] = STATE_SHOWN;
+            mCell[position] = CardAtlas.BACK_CELL;
+            stopAnimations(position);
+        }
+        requestRender();
+    }
+
+    @Override
+    public void hide(int position) {
+        synchronized (mLock) {
+            mState[position] = STATE_HIDDEN;
+            stopAnimations(position);
+        }
+        requestRender();
+    }
+
+    @Override
+    public void flipToFront(int position, int face) {
+        startFlip(position, CardAtlas.cellFor(Card.getImage(face)));
+    }
+
+    @Override
+    public void flipToBack(int position) {
+        startFlip(position, CardAtlas.BACK_CELL);
+    }
+
+    @Override
+    public void remove(int position) {
+        synchronized (mLock) {
+            mRemoveStart[position] = SystemClock.uptimeMillis();
+        }
+        requestRender();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        // Ignore everything but down events
+        if (event.getAction() != MotionEvent.ACTION_DOWN)
+            return true;
+
+        int position;
+        synchronized (mLock) {
+            if (mNumRows == 0)
+                return true;
+
+            int screenCols = mTransposed ? mNumRows : mNumCols;
+            int screenRows = mTransposed ? mNumCols : mNumRows;
+            int col = (int) (event.getX() * screenCols / getWidth());
+            int row = (int) (event.getY() * screenRows / getHeight());
+            if (col < 0 || col >= screenCols || row < 0 || row >= screenRows)
+                return true;
+
+            position = mTransposed ? col * mNumCols + row : row * mNumCols + col;
+            if (mState[position] != STATE_SHOWN)
+                return true;
+        }
+
+        if (mOnCardTouchListener != null)
+            mOnCardTouchListener.onCardTouched(position, event.getEventTime());
+
+        return true;
+    }
+
+    private void startFlip(int position, int cell) {
+        synchronized (mLock) {
+            mPendingCell[position] = cell;
+            mFlipStart[position] = SystemClock.uptimeMillis();
+            mFlipDrawn[position] = false;
+        }
+        requestRender();
+    }
+
+    private void stopAnimations(int position) {
+        // Called with mLock held:
+        mFlipStart[position] = INACTIVE;
+        mRemoveStart[position] = INACTIVE;
+    }
+
+
+    //
+    // GLSurfaceView.Renderer methods (render thread):
+    //
+
+    @Override
+    public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        gl.glDisable(GL10.GL_DITHER);
+        gl.glDisable(GL10.GL_DEPTH_TEST);
+        gl.glDisable(GL10.GL_CULL_FACE);
+        gl.glEnable(GL10.GL_BLEND);
+        gl.glBlendFunc(GL10.GL_ONE, GL10.GL_ONE_MINUS_SRC_ALPHA);
+        gl.glClearColor(CLEAR_RED, CLEAR_GREEN, CLEAR_BLUE, 1f);
+
+        gl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
+        gl.glVertexPointer(2, GL10.GL_FLOAT, 0, mVertices);
+
+        // The texture is lost with the EGL context, so it's uploaded here each time. Loading
+        // the atlas blocks only this thread if it hasn't finished loading yet:
+        Bitmap atlas;
+        try {
+            atlas = CardAtlas.load(getContext()).getBitmap();
+        } catch (RuntimeException e) {
+            // As in the startup pipeline, but a failure here would end the render thread:
+            Log.e(TAG, "Failed to load the card atlas", e);
+            mTextured = false;
+            gl.glDisable(GL10.GL_TEXTURE_2D);
+            gl.glDisableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+            gl.glColor4f(CARD_RED, CARD_GREEN, CARD_BLUE, 1f);
+            return;
+        }
+
+        mTextured = true;
+        gl.glColor4f(1f, 1f, 1f, 1f);
+        gl.glGenTextures(1, mTexture, 0);
+        gl.glBindTexture(GL10.GL_TEXTURE_2D, mTexture[0]);
+        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MIN_FILTER, GL10.GL_LINEAR);
+        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_MAG_FILTER, GL10.GL_LINEAR);
+        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_S, GL10.GL_CLAMP_TO_EDGE);
+        gl.glTexParameterf(GL10.GL_TEXTURE_2D, GL10.GL_TEXTURE_WRAP_T, GL10.GL_CLAMP_TO_EDGE);
+        GLUtils.texImage2D(GL10.GL_TEXTURE_2D, 0, atlas, 0);
+
+        gl.glEnable(GL10.GL_TEXTURE_2D);
+        gl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 gl, int width, int height) {
+        mWidth = width;
+        mHeight = height;
+
+        // Pixel coordinates with the origin at the top left, and enough depth for a card
+        // rotated edge-on:
+        gl.glViewport(0, 0, width, height);
+        gl.glMatrixMode(GL10.GL_PROJECTION);
+        gl.glLoadIdentity();
+        gl.glOrthof(0, width, height, 0, -width, width);
+        gl.glMatrixMode(GL10.GL_MODELVIEW);
+    }
+
+    @Override
+    public void onDrawFrame(GL10 gl) {
+        gl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+
+        boolean animating = false;
+        long now = SystemClock.uptimeMillis();
+        int numCards = 0;
+        float cardWidth;
+        float cardHeight;
+
+        synchronized (mLock) {
+            if (mNumRows == 0)
+                return;
+
+            int screenCols = mTransposed ? mNumRows : mNumCols;
+            int screenRows = mTransposed ? mNumCols : mNumRows;
+            float cellWidth = (float) mWidth / screenCols;
+            float cellHeight = (float) mHeight / screenRows;
+            cardWidth = cellWidth - 2 * CARD_MARGIN;
+            cardHeight = cellHeight - 2 * CARD_MARGIN;
+
+            for (int i = 0; i < mNumRows; i++) {
+                for (int j = 0; j < mNumCols; j++) {
+                    int position = i * mNumCols + j;
+                    if (mState[position] != STATE_SHOWN || !advance(position, now, numCards))
+                        continue;
+
+                    mFrameX[numCards] = ((mTransposed ? i : j) + 0.5f) * cellWidth;
+                    mFrameY[numCards] = ((mTransposed ? j : i) + 0.5f) * cellHeight;
+                    numCards++;
+
+                    animating |= mFlipStart[position] != INACTIVE
+                            || mRemoveStart[position] != INACTIVE;
+                }
+            }
+        }
+
+        setGridSize(cardWidth, cardHeight);
+        for (int card = 0; card < numCards; card++)
+            drawCard(gl, card, cardWidth, cardHeight);
+
+        // Keep rendering frames until every animation has finished:
+        if (animating)
+            requestRender();
+    }
+
+    private boolean advance(int position, long now, int card) {
+        // Called with mLock held. Sets up the card's frame, or returns false once it's removed:
+        float degrees = 0f;
+        float scale = 1f;
+
+        if (mFlipStart[position] != INACTIVE) {
+            if (!mFlipDrawn[position]) {
+                mFlipDrawn[position] = true;
+                TapLatency.onFirstFrame(position);
+            }
+
+            // This renderer ticks on its own thread, but honours the same global time scale:
+            long elapsed = (long) CardAnimationEngine.scaleTime(now - mFlipStart[position]);
+            if (elapsed < HALF_CARD_FLIP_MSECS) {
+                // Rotate the current image away until its edge faces the user:
+                degrees = HALF_CARD_FLIP_DEGREES * mStartFlipInterpolator.getInterpolation(
+                        (float) elapsed / HALF_CARD_FLIP_MSECS);
+
+            } else {
+                // Change the card image when the card is half-flipped, then rotate it in:
+                mCell[position] = mPendingCell[position];
+
+                if (elapsed < Card.CARD_FLIP_MSECS)
+                    degrees = HALF_CARD_FLIP_DEGREES * (mFinishFlipInterpolator.getInterpolation(
+                            (float) (elapsed - HALF_CARD_FLIP_MSECS) / HALF_CARD_FLIP_MSECS) - 1f);
+                else
+                    mFlipStart[position] = INACTIVE;
+            }
+        }
+
+        if (mRemoveStart[position] != INACTIVE) {
+            long elapsed = (long) CardAnimationEngine.scaleTime(now - mRemoveStart[position]);
+            if (elapsed >= Card.CARD_REMOVE_MSECS) {
+                stopAnimations(position);
+                mState[position] = STATE_REMOVED;
+                return false;
+            }
+
+            scale = 1f - mRemoveInterpolator.getInterpolation(
+                    (float) elapsed / Card.CARD_REMOVE_MSECS);
+        }
+
+        mFrameDegrees[card] = degrees;
+        mFrameScale[card] = scale;
+        mFrameCell[card] = mCell[position];
+        return true;
+    }
+
+    private void drawCard(GL10 gl, int card, float width, float height) {
+        gl.glLoadIdentity();
+        gl.glTranslatef(mFrameX[card], mFrameY[card], 0f);
+        gl.glRotatef(mFrameDegrees[card], 0f, 1f, 0f);
+        gl.glScalef(mFrameScale[card], mFrameScale[card], 1f);
+
+        // The background fills the card; the image is fit inside it, keeping its aspect:
+        drawBackground(gl);
+        if (!mTextured)
+            return;
+
+        float size = Math.min(width, height) - 2 * mImageInset;
+        drawQuad(gl, mFrameCell[card], size, size);
+    }
+
+    private void setGridSize(float width, float height) {
+        // Moves the background's patch edges for a new card size; the corners keep theirs:
+        if (width == mGridWidth && height == mGridHeight)
+            return;
+
+        mGridWidth = width;
+        mGridHeight = height;
+        float corner = Math.min(mCorner, Math.min(width, height) / 2);
+        mGridX[0] = -width / 2;
+        mGridX[1] = -width / 2 + corner;
+        mGridX[2] = width / 2 - corner;
+        mGridX[3] = width / 2;
+        mGridY[0] = -height / 2;
+        mGridY[1] = -height / 2 + corner;
+        mGridY[2] = height / 2 - corner;
+        mGridY[3] = height / 2;
+
+        mGridVertices.position(0);
+        for (int row = 0; row < GRID_SIZE; row++)
+            for (int col = 0; col < GRID_SIZE; col++)
+                mGridVertices.put(mGridX[col]).put(mGridY[row]);
+        mGridVertices.position(0);
+    }
+
+    private void drawBackground(GL10 gl) {
+        gl.glVertexPointer(2, GL10.GL_FLOAT, 0, mGridVertices);
+        if (mTextured)
+            gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, mGridTexCoords);
+        gl.glDrawElements(GL10.GL_TRIANGLES, GRID_INDICES, GL10.GL_UNSIGNED_SHORT, mGridIndices);
+        gl.glVertexPointer(2, GL10.GL_FLOAT, 0, mVertices);
+    }
+
+    private void drawQuad(GL10 gl, int cell, float width, float height) {
+        gl.glPushMatrix();
+        gl.glScalef(width, height, 1f);
+
+        mTexCoords.position(cell * QUAD_FLOATS);
+        gl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, mTexCoords);
+        gl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 4);
+
+        gl.glPopMatrix();
+    }
+
+    private static FloatBuffer allocateFloats(int count) {
+        return ByteBuffer.allocateDirect(count * FLOAT_BYTES)
+                         .order(ByteOrder.nativeOrder())
+                         .asFloatBuffer();
+    }
+}
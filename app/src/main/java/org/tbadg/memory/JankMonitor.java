@@ -0,0 +1,153 @@
+package org.tbadg.memory;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * Watches the UI thread's frames while cards animate or the board is rebuilt or turned, and
+ * keeps per-operation counts of slow frames. A frame is attributed to the operation active
+ * while it was produced; when several are active, board rebuilds and orientation changes take
+ * precedence over removals, and removals over flips.
+ *
+ * Frame durations are the times between consecutive frame callbacks, so a frame whose work took
+ * over 16 ms shows up as a missed vsync. Frames are only observed from Jelly Bean on, and must
+ * be reported on the UI thread.
+ */
+final class JankMonitor {
+
+    // Operations, lowest precedence first:
+    public static final int OP_FLIP = 0;
+    public static final int OP_REMOVE = 1;
+    public static final int OP_REBUILD = 2;
+    public static final int OP_ORIENTATION = 3;
+    private static final String[] OP_NAMES = {"flip", "remove", "rebuild", "orientation"};
+    private static final int NUM_OPS = OP_NAMES.length;
+    private static final int NO_OP = -1;
+
+    private static final long NANOS_PER_MSEC = 1000000;
+    private static final long SLOW_FRAME_NANOS = 16 * NANOS_PER_MSEC;
+    private static final long FROZEN_FRAME_NANOS = 32 * NANOS_PER_MSEC;
+
+    // A rebuild or orientation change is watched for the frame it's laid out and drawn in, and
+    // the one after:
+    private static final int SETTLE_FRAMES = 3;
+
+    // Running animations of each operation, and frames left to watch after one-off operations:
+    private static final int[] sActive = new int[NUM_OPS];
+    private static final int[] sSettleFrames = new int[NUM_OPS];
+
+    private static final int[] sFrames = new int[NUM_OPS];
+    private static final int[] sSlowFrames = new int[NUM_OPS];
+    private static final int[] sFrozenFrames = new int[NUM_OPS];
+    private static final long[] sWorstNanos = new long[NUM_OPS];
+
+    private static long sFrameIntervalNanos = 1000 * NANOS_PER_MSEC / 60;
+    private static boolean sFrameScheduled = false;
+    private static long sLastFrameNanos = 0;
+    private static int sLastOp = NO_OP;
+    private static Object sFrameCallback = null;
+
+
+    private JankMonitor() {
+    }
+
+    public static void setup(Context context) {
+        sFrameIntervalNanos = CardAnimationEngine.getFrameIntervalNanos(context);
+    }
+
+    public static void begin(int op) {
+        sActive[op]++;
+        scheduleFrame();
+    }
+
+    public static void end(int op) {
+        if (sActive[op] > 0)
+            sActive[op]--;
+    }
+
+    public static void settle(int op) {
+        sSettleFrames[op] = SETTLE_FRAMES;
+        scheduleFrame();
+    }
+
+    public static String getSummary() {
+        StringBuilder summary = new StringBuilder("Frames  >16ms  >32ms  worst");
+        for (int op = 0; op < NUM_OPS; op++) {
+            summary.append(String.format("\n%-11s %4d %4d %4d %4d ms", OP_NAMES[op],
+                                         sFrames[op], sSlowFrames[op], sFrozenFrames[op],
+                                         sWorstNanos[op] / NANOS_PER_MSEC));
+        }
+
+        return summary.toString();
+    }
+
+    private static int activeOp() {
+        for (int op = NUM_OPS - 1; op >= 0; op--)
+            if (sActive[op] > 0 || sSettleFrames[op] > 0)
+                return op;
+
+        return NO_OP;
+    }
+
+    private static void scheduleFrame() {
+        if (sFrameScheduled || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            return;
+
+        sFrameScheduled = true;
+        postFrameCallback();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void postFrameCallback() {
+        if (sFrameCallback == null) {
+            sFrameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    onFrame(frameTimeNanos);
+                }
+            };
+        }
+
+        Choreographer.getInstance().postFrameCallback(
+                (Choreographer.FrameCallback) sFrameCallback);
+    }
+
+    private static void onFrame(long frameTimeNanos) {
+        sFrameScheduled = false;
+
+        // The time since the last frame is how long the operation active then took to draw:
+        if (sLastOp != NO_OP && sLastFrameNanos != 0)
+            record(sLastOp, frameTimeNanos - sLastFrameNanos);
+
+        for (int op = 0; op < NUM_OPS; op++)
+            if (sSettleFrames[op] > 0)
+                sSettleFrames[op]--;
+
+        sLastOp = activeOp();
+        if (sLastOp != NO_OP) {
+            sLastFrameNanos = frameTimeNanos;
+            scheduleFrame();
+        } else {
+            sLastFrameNanos = 0;
+        }
+    }
+
+    private static void record(int op, long durationNanos) {
+        sFrames[op]++;
+        sWorstNanos[op] = Math.max(sWorstNanos[op], durationNanos);
+
+        // A frame that took longer than a threshold missed at least one more vsync than it
+        // should have, so half an interval of slack absorbs vsync jitter:
+        long slack = sFrameIntervalNanos / 2;
+        if (durationNanos <= SLOW_FRAME_NANOS + slack)
+            return;
+
+        sSlowFrames[op]++;
+        if (durationNanos > FROZEN_FRAME_NANOS + slack)
+            sFrozenFrames[op]++;
+
+        EventTrace.record(EventTrace.SLOW_FRAME, op, (int) (durationNanos / NANOS_PER_MSEC));
+    }
+}
@@ -0,0 +1,60 @@
+package org.tbadg.memory;
+
+/**
+ * A fixed-memory histogram of latencies with one-millisecond buckets. Latencies beyond the
+ * histogram's range share an overflow bucket, so recording never allocates and percentiles
+ * are exact to the millisecond within the range.
+ */
+class LatencyHistogram {
+
+    private final int[] mCounts;
+    private int mCount = 0;
+    private long mSum = 0;
+    private long mMax = 0;
+
+
+    public LatencyHistogram(int maxMsecs) {
+        // One bucket per millisecond from 0 to maxMsecs, plus the overflow bucket:
+        mCounts = new int[maxMsecs + 2];
+    }
+
+    public void record(long msecs) {
+        if (msecs < 0)
+            msecs = 0;
+
+        int bucket = (int) Math.min(msecs, mCounts.length - 1);
+        mCounts[bucket]++;
+        mCount++;
+        mSum += msecs;
+        mMax = Math.max(mMax, msecs);
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMean() {
+        return mCount == 0 ? 0 : Math.round((double) mSum / mCount);
+    }
+
+    public long getPercentile(double percentile) {
+        // The smallest latency that at least the given percentage of samples don't exceed, or
+        // -1 without samples:
+        if (mCount == 0)
+            return -1;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < mCounts.length - 1; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= rank)
+                return bucket;
+        }
+
+        return mMax;
+    }
+}
@@ -0,0 +1,240 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * The best scores for every board size, kept in memory. They're loaded from the scores table
+ * once, then updated as the ScoreWriter writes new results, so the scores screen never has to
+ * query the database. The best scores overall are merged from the per-size lists.
+ *
+ * Each size's score histogram is kept too, so a new score's rank among all the games played at
+ * its size is known without a query, however many games that is.
+ *
+ * Thread-safe; load() queries the database, so it belongs on a background thread. It holds the
+ * lock only to publish what it read, so reads from the UI thread never wait for the database.
+ */
+class Leaderboard {
+    private static final String TAG = "Leaderboard";
+
+    // Scores kept per board size:
+    public static final int TOP_N = 10;
+
+    // The columns of the cursors served, as the scores list expects them:
+    private static final String[] COLUMNS = {"_id", DatabaseHelper.SCORE, DatabaseHelper.MATCHES,
+                                             DatabaseHelper.ELAPSED_TIME};
+
+    private static Leaderboard sInstance = null;
+
+    private final DatabaseHelper mDb;
+    private volatile boolean mLoaded = false;
+
+    // The rest is guarded by this. The newest result the load saw; later ones are added as
+    // they're written:
+    private long mLoadedMaxId = 0;
+
+    // By number of matches, best first:
+    private ArrayList<ArrayList<Entry>> mEntries = newEntries();
+    private ScoreHistogram[] mHistograms = newHistograms();
+
+    // Results written before the scores were loaded, which the load may not have seen:
+    private final ArrayList<Entry> mAddedWhileLoading = new ArrayList<>();
+
+
+    public static synchronized Leaderboard getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new Leaderboard(DatabaseHelper.getInstance(context));
+        return sInstance;
+    }
+
+    Leaderboard(DatabaseHelper db) {
+        mDb = db;
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    public void load() {
+        if (mLoaded)
+            return;
+
+        // The writer adds a result to the leaderboard only after committing it, so all of the
+        // queries must see the same results, which a transaction keeps the writer from changing:
+        ArrayList<ArrayList<Entry>> entries = newEntries();
+        ScoreHistogram[] histograms = newHistograms();
+        long maxId;
+        SQLiteDatabase db = mDb.getReadableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            maxId = loadFrom(db, entries, histograms);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        synchronized (this) {
+            if (mLoaded)
+                return;
+
+            mEntries = entries;
+            mHistograms = histograms;
+            mLoadedMaxId = maxId;
+            mLoaded = true;
+
+            for (Entry entry : mAddedWhileLoading)
+                add(entry.mId, entry.mScore, entry.mMatches, entry.mElapsedTime);
+            mAddedWhileLoading.clear();
+        }
+        Log.d(TAG, "Loaded the best scores");
+    }
+
+    private static long loadFrom(SQLiteDatabase db, ArrayList<ArrayList<Entry>> entries,
+                                 ScoreHistogram[] histograms) {
+        // Returns the newest result's ID:
+        long maxId;
+        Cursor newest = db.rawQuery("SELECT max(ROWID) FROM " + DatabaseHelper.TABLE, null);
+        try {
+            maxId = newest.moveToFirst() ? newest.getLong(0) : 0;
+        } finally {
+            newest.close();
+        }
+
+        // One indexed top-N query per board size:
+        for (int matches = 0; matches <= MemoryActivity.MAX_MATCHES; matches++) {
+            Cursor cursor = db.query(DatabaseHelper.TABLE,
+                                     new String[] {"ROWID", DatabaseHelper.SCORE,
+                                                   DatabaseHelper.ELAPSED_TIME},
+                                     DatabaseHelper.MATCHES + " = " + matches, null, null, null,
+                                     DatabaseHelper.SCORE + " DESC", String.valueOf(TOP_N));
+            try {
+                while (cursor.moveToNext())
+                    entries.get(matches).add(new Entry(cursor.getLong(0), cursor.getInt(1),
+                                                        matches, cursor.getInt(2)));
+            } finally {
+                cursor.close();
+            }
+        }
+
+        Cursor cursor = db.query(DatabaseHelper.STATS_TABLE,
+                                 new String[] {DatabaseHelper.MATCHES,
+                                               DatabaseHelper.SCORE_HISTOGRAM},
+                                 null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int matches = cursor.getInt(0);
+                if (matches >= 0 && matches <= MemoryActivity.MAX_MATCHES)
+                    histograms[matches] = ScoreHistogram.fromBytes(cursor.getBlob(1));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return maxId;
+    }
+
+    private static ArrayList<ArrayList<Entry>> newEntries() {
+        ArrayList<ArrayList<Entry>> entries = new ArrayList<>();
+        for (int matches = 0; matches <= MemoryActivity.MAX_MATCHES; matches++)
+            entries.add(new ArrayList<Entry>(TOP_N + 1));
+        return entries;
+    }
+
+    private static ScoreHistogram[] newHistograms() {
+        ScoreHistogram[] histograms = new ScoreHistogram[MemoryActivity.MAX_MATCHES + 1];
+        for (int matches = 0; matches <= MemoryActivity.MAX_MATCHES; matches++)
+            histograms[matches] = new ScoreHistogram();
+        return histograms;
+    }
+
+    public synchronized void add(long id, int score, int matches, int elapsedTime) {
+        if (matches < 0 || matches > MemoryActivity.MAX_MATCHES)
+            return;
+
+        if (!mLoaded) {
+            mAddedWhileLoading.add(new Entry(id, score, matches, elapsedTime));
+            return;
+        }
+
+        // A result written before the scores were loaded is already part of them:
+        if (id <= mLoadedMaxId)
+            return;
+
+        ArrayList<Entry> entries = mEntries.get(matches);
+        mHistograms[matches].add(score);
+
+        // After any equal scores, so earlier results keep their rank:
+        int rank = 0;
+        while (rank < entries.size() && entries.get(rank).mScore >= score)
+            rank++;
+
+        if (rank < TOP_N) {
+            entries.add(rank, new Entry(id, score, matches, elapsedTime));
+            if (entries.size() > TOP_N)
+                entries.remove(TOP_N);
+        }
+    }
+
+    public synchronized int getPercentBeaten(int matches, int score) {
+        // Of the games played at this size, or -1 if there are none or they aren't loaded yet:
+        if (!mLoaded || matches < 0 || matches > MemoryActivity.MAX_MATCHES)
+            return -1;
+
+        return mHistograms[matches].getPercentBeaten(score);
+    }
+
+    public synchronized Cursor getTopScores(int limit) {
+        // The best scores of any size are among the best of their own size:
+        ArrayList<Entry> best = new ArrayList<>();
+        for (ArrayList<Entry> entries : mEntries) {
+            for (Entry entry : entries) {
+                int rank = 0;
+                while (rank < best.size() && best.get(rank).mScore >= entry.mScore)
+                    rank++;
+                if (rank < limit)
+                    best.add(rank, entry);
+                if (best.size() > limit)
+                    best.remove(limit);
+            }
+        }
+
+        return toCursor(best);
+    }
+
+    public synchronized Cursor getTopScores(int matches, int limit) {
+        ArrayList<Entry> entries = mEntries.get(matches);
+        return toCursor(entries.subList(0, Math.min(limit, entries.size())));
+    }
+
+    private static Cursor toCursor(Iterable<Entry> entries) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (Entry entry : entries)
+            cursor.addRow(new Object[] {entry.mId, entry.mScore, entry.mMatches,
+                                        entry.mElapsedTime});
+        return cursor;
+    }
+
+
+    //
+    // A single result:
+    //
+
+    private static class Entry {
+        private final long mId;
+        private final int mScore;
+        private final int mMatches;
+        private final int mElapsedTime;
+
+        private Entry(long id, int score, int matches, int elapsedTime) {
+            mId = id;
+            mScore = score;
+            mMatches = matches;
+            mElapsedTime = elapsedTime;
+        }
+    }
+}
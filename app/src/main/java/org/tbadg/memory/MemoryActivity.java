@@ -5,9 +5,9 @@ import android.app.AlertDialog;
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
 import android.content.ContentValues;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -28,10 +28,19 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
     private static final String TAG = "MemoryActivity";
     public static final int MAX_MATCHES = 24;
     private static final int WINNER_POPUP_DISPLAY_TIME = 5000;
+    private static final int RESOURCE_TIMEOUT_MSECS = 10000;
+    private static final int LATENCY_REFRESH_MSECS = 500;
+
+    private static final String PREFS_NAME = "settings";
+    private static final String PREF_TURBO = "turbo";
+    private static final String PREF_SPEED = "speed";
+    private static final int[] SPEED_MENU_IDS
+            = {R.id.menu_speed_relaxed, R.id.menu_speed_normal, R.id.menu_speed_fast};
 
     private Board mBoard;
     private Button mPopupBtn;
     private ImageView mSplashImg;
+    private TextView mLatencyOverlay;
 
     @SuppressWarnings("FieldCanBeLocal")
     private SoundsEffects mSoundsEffects;
@@ -40,36 +49,107 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
     private int mPrevOrientation = -1;
     private Ads mAds = null;
     private DatabaseHelper mDb = null;
+    private ScoreWriter mScoreWriter = null;
 
     private ScoresFragment mScores = null;
+    private StartupPipeline mStartup = null;
+
     //
     // Life-cycle methods
     //
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin("onCreate");
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_memory);
-
-        mDb = new DatabaseHelper(this);
 
-        mAds = new Ads(findViewById(R.id.adView));
-        mAds.showAd();
+        StartupTrace.begin("setContentView");
+        setContentView(R.layout.activity_memory);
+        StartupTrace.end("setContentView");
 
+        // The splash screen is hidden as soon as every resource has loaded (or given up):
+        mSplashImg = (ImageView) findViewById(R.id.splash);
+        mLatencyOverlay = (TextView) findViewById(R.id.latency_overlay);
+        final ResourceBarrier resources
+                = new ResourceBarrier(RESOURCE_TIMEOUT_MSECS, mOnResourcesReady);
+
+        // Only the board is set up here, on the critical path to the first frame. Everything
+        // else is loaded concurrently by the startup pipeline:
+        StartupTrace.begin("new DatabaseHelper");
+        mDb = DatabaseHelper.getInstance(this);
+        mScoreWriter = ScoreWriter.getInstance(this);
+        StartupTrace.end("new DatabaseHelper");
+
+        StartupTrace.begin("new SoundsEffects");
         setVolumeControlStream(SoundsEffects.AUDIO_STREAM_TYPE);
-        mSoundsEffects = new SoundsEffects(this);
-
+        mSoundsEffects = new SoundsEffects(this, resources.register("sound effects"));
         mMusic = new Music();
-        mMusic.play(this, R.raw.music);
+        StartupTrace.end("new SoundsEffects");
 
         // Clicking the popup or newGame buttons starts a new game:
+        StartupTrace.begin("board setup");
         mPopupBtn = (Button) findViewById(R.id.popup);
-        mSplashImg = (ImageView) findViewById(R.id.splash);
         mBoard = (Board) findViewById(R.id.board);
         mBoard.setup(mSoundsEffects, mOnWinnerRunnable);
+        loadSettings();
         newGame();
+        StartupTrace.end("board setup");
+
+        startPipeline(resources);
+        resources.start();
+        StartupTrace.end("onCreate");
+    }
+
+    private void startPipeline(final ResourceBarrier resources) {
+        final ResourceBarrier.Resource atlas = resources.register("card atlas");
+        final ResourceBarrier.Resource music = resources.register("music");
+        mStartup = new StartupPipeline();
+
+        mStartup.inBackground("card atlas", new Runnable() {
+            @Override
+            public void run() {
+                // Without the atlas, cards are drawn from their own images, so don't wait for it:
+                try {
+                    CardAtlas.load(getApplicationContext());
+                    atlas.succeeded();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to load the card atlas", e);
+                    atlas.failed();
+                }
+            }
+        });
+        mStartup.inBackground("database", new Runnable() {
+            @Override
+            public void run() {
+                mDb.getWritableDatabase();
+                Leaderboard.getInstance(MemoryActivity.this).load();
+            }
+        });
+        StartupPipeline.Step sounds = mStartup.inBackground("sound effects", new Runnable() {
+            @Override
+            public void run() {
+                mSoundsEffects.load();
+            }
+        });
+
+        // The music is the biggest resource, so it's prepared once the short sound effects are
+        // queued, and ads aren't needed until the board is on screen:
+        mStartup.inBackground("music", new Runnable() {
+            @Override
+            public void run() {
+                mMusic.play(MemoryActivity.this, R.raw.music, music);
+            }
+        }, sounds);
+        mStartup.onUiThread("ads", new Runnable() {
+            @Override
+            public void run() {
+                mAds = new Ads(findViewById(R.id.adView));
+                mAds.showAd();
+                mAds.resume();
+            }
+        }, mStartup.firstDraw(mBoard));
 
-        new WaitForResourcesRunnable().execute();
+        mStartup.start();
     }
 
     @Override
@@ -78,6 +158,10 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
         if (mAds != null)
             mAds.resume();
         mMusic.resume();
+        mBoard.resume();
+        GameSpeed.readSystemScale(this);
+        if (mLatencyOverlay.getVisibility() == View.VISIBLE)
+            mLatencyOverlay.post(mRefreshLatencyRunnable);
     }
 
     @Override
@@ -86,6 +170,10 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
         if (mAds != null)
             mAds.pause();
         mMusic.pause();
+        mBoard.pause();
+        // Waiting here would stall the UI, so the writer is only hurried along:
+        mScoreWriter.requestFlush();
+        mLatencyOverlay.removeCallbacks(mRefreshLatencyRunnable);
     }
 
     @Override
@@ -98,7 +186,7 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
     public void onDestroy() {
         super.onDestroy();
 
-        mDb.close();
+        mStartup.shutdown();
 
         if (mAds != null)
             mAds.destroy();
@@ -130,6 +218,15 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
         matches.setOnEditorActionListener(this);
         matches.setText(String.valueOf(mBoard.getNumberOfMatches()));
 
+        menu.findItem(R.id.menu_turbo).setChecked(mBoard.isTurbo());
+        menu.findItem(SPEED_MENU_IDS[GameSpeed.getProfile()]).setChecked(true);
+
+        if (BuildConfig.DEBUG) {
+            menu.findItem(R.id.menu_latency).setVisible(true)
+                .setChecked(mLatencyOverlay.getVisibility() == View.VISIBLE);
+            menu.findItem(R.id.menu_save_diagnostics).setVisible(true);
+        }
+
         return (super.onCreateOptionsMenu(menu));
     }
 
@@ -155,6 +252,32 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
             case R.id.menu_help:
                 handleHelp();
                 break;
+
+            case R.id.menu_turbo:
+                item.setChecked(!item.isChecked());
+                mBoard.setTurbo(item.isChecked());
+                saveSettings();
+                break;
+
+            case R.id.menu_speed_relaxed:
+            case R.id.menu_speed_normal:
+            case R.id.menu_speed_fast:
+                item.setChecked(true);
+                for (int profile = 0; profile < SPEED_MENU_IDS.length; profile++)
+                    if (SPEED_MENU_IDS[profile] == item.getItemId())
+                        GameSpeed.setProfile(profile);
+                saveSettings();
+                break;
+
+            case R.id.menu_latency:
+                item.setChecked(!item.isChecked());
+                showLatencyOverlay(item.isChecked());
+                break;
+
+            case R.id.menu_save_diagnostics:
+                TapLatency.dump(getApplicationContext());
+                EventTrace.save(getApplicationContext());
+                break;
         }
 
         return super.onOptionsItemSelected(item);
@@ -199,9 +322,29 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
         return true;
     }
 
+    private void loadSettings() {
+        SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+        mBoard.setTurbo(prefs.getBoolean(PREF_TURBO, false));
+        GameSpeed.setProfile(prefs.getInt(PREF_SPEED, GameSpeed.NORMAL));
+    }
+
+    private void saveSettings() {
+        getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit()
+                .putBoolean(PREF_TURBO, mBoard.isTurbo())
+                .putInt(PREF_SPEED, GameSpeed.getProfile())
+                .apply();
+    }
+
+    private void showLatencyOverlay(boolean show) {
+        mLatencyOverlay.removeCallbacks(mRefreshLatencyRunnable);
+        mLatencyOverlay.setVisibility(show ? View.VISIBLE : View.GONE);
+        if (show)
+            mRefreshLatencyRunnable.run();
+    }
+
     private void handleScores() {
 
-        Log.e(TAG, "Showing best scores.");
+        Log.d(TAG, "Showing best scores.");
 
         mScores = new ScoresFragment();
         FragmentManager fm = getFragmentManager();
@@ -281,56 +424,39 @@ public class MemoryActivity extends Activity implements TextView.OnEditorActionL
             mPopupBtn.postDelayed(mNewGameRunnable, WINNER_POPUP_DISPLAY_TIME);
 
             ContentValues cv = mBoard.getResult();
-            mPopupBtn.setText(getString(R.string.winner_popup) + cv.get(DatabaseHelper.SCORE));
+            int score = cv.getAsInteger(DatabaseHelper.SCORE);
+            String text = getString(R.string.winner_popup) + score;
+
+            // Ranked against the earlier games of this size, before this one is added to them:
+            int percentBeaten = Leaderboard.getInstance(MemoryActivity.this)
+                    .getPercentBeaten(cv.getAsInteger(DatabaseHelper.MATCHES), score);
+            if (percentBeaten >= 0)
+                text += getString(R.string.winner_percent_beaten, percentBeaten);
+
+            mPopupBtn.setText(text);
             mPopupBtn.setVisibility(View.VISIBLE);
 
-            new InsertScoreTask().execute(cv);
+            mScoreWriter.add(cv);
         }
     };
 
-    private class InsertScoreTask extends AsyncTask<ContentValues, Void, Boolean> {
+    private final Runnable mRefreshLatencyRunnable = new Runnable() {
         @Override
-        protected Boolean doInBackground(ContentValues... cv) {
-            mDb.getWritableDatabase().insert(DatabaseHelper.TABLE,
-                    DatabaseHelper.SCORE, cv[0]);
-
-            Log.d(TAG, "Inserted score row into datbase.");
-            return true;
-        }
-    }
-
-
-    class WaitForResourcesRunnable extends AsyncTask<Void, Void, Boolean> {
-        final static int DELAY_MSECS = 250;
-        final static int MIN_WAIT_MSECS = 2000;
-        final static int MAX_WAIT_MSECS = 10000;
-
-        protected Boolean doInBackground(Void... params) {
-
-            int msecs = 0;
-            while (msecs < MAX_WAIT_MSECS) {
-                //noinspection ResourceType
-                if (msecs >= MIN_WAIT_MSECS
-                        && Card.isResourceLoadingFinished()
-                        && SoundsEffects.isResourceLoadingFinished()
-                        && Music.isResourceLoadingFinished())
-                    return true;
-
-                try {
-                    Thread.sleep(DELAY_MSECS);
-                } catch (InterruptedException e) {
-                    // Ignore interruption
-                }
-
-                msecs += DELAY_MSECS;
-            }
-
-            Log.e(TAG, "Resource loading timed-out!");
-            return false;
+        public void run() {
+            mLatencyOverlay.setText(TapLatency.getSummary() + "\n\n" + JankMonitor.getSummary());
+            mLatencyOverlay.postDelayed(this, LATENCY_REFRESH_MSECS);
         }
+    };
 
-        protected void onPostExecute(Boolean result) {
+    private final ResourceBarrier.OnReadyListener mOnResourcesReady
+            = new ResourceBarrier.OnReadyListener() {
+        @Override
+        public void onReady(boolean allSucceeded) {
             mSplashImg.setVisibility(View.INVISIBLE);
+
+            // That's the end of startup, so the trace can be written out:
+            StartupTrace.instant("splash hidden");
+            StartupTrace.finish(getApplicationContext());
         }
-    }
+    };
 }
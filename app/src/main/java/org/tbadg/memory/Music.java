@@ -8,9 +8,17 @@ import android.util.Log;
 
 import java.io.IOException;
 
+/**
+ * The background music. play() may be called from any thread, and the music is prepared
+ * asynchronously, so pause() and stop() can arrive before it's ready; it only starts once it's
+ * ready if it's still wanted then. Once stopped, the music stays stopped.
+ */
 class Music {
 
-    public void play(Context context, int resourceId) {
+    public synchronized void play(Context context, int resourceId, ResourceBarrier.Resource resource) {
+        // The resource, if any, is reported once the music is ready to play or has failed:
+        mResource = resource;
+
         Uri uri = new Uri.Builder()
                 .scheme("android.resource")
                 .authority(context.getPackageName())
@@ -19,7 +27,11 @@ class Music {
         play(context, uri);
     }
 
-    private void play(Context context, Uri musicUri) {
+    private synchronized void play(Context context, Uri musicUri) {
+        if (mStopped) {
+            reportLoaded(false);
+            return;
+        }
         reset();
 
         MediaPlayer mediaPlayer = new MediaPlayer();
@@ -33,17 +45,22 @@ class Music {
             mediaPlayer.setDataSource(context, musicUri);
             mediaPlayer.setLooping(true);
             mediaPlayer.prepareAsync();
+            mPreparing = mediaPlayer;
         } catch (IOException | IllegalArgumentException | SecurityException e) {
             Log.e("Music", "Failed to open the darn music uri", e);
+            mediaPlayer.release();
+            reportLoaded(false);
         }
     }
 
-    public void pause() {
+    public synchronized void pause() {
+        mPaused = true;
         if (mMediaPlayer != null && mMediaPlayer.isPlaying())
             mMediaPlayer.pause();
     }
 
-    public void resume() {
+    public synchronized void resume() {
+        mPaused = false;
         if (mMediaPlayer == null) {
             return;
         }
@@ -54,28 +71,49 @@ class Music {
         }
     }
 
-    public void stop() {
+    public synchronized void stop() {
+        mStopped = true;
         reset();
-    }
 
-    public static boolean isResourceLoadingFinished() {
-        return resourceLoadingFinished;
+        // Music stopped before it was ready never will be:
+        reportLoaded(false);
     }
 
     /*
      * Implementation below
      */
 
+    // All guarded by this. The player being prepared, until it's ready and becomes the player:
     private MediaPlayer mMediaPlayer;
-    private static final boolean resourceLoadingFinished = true;
+    private MediaPlayer mPreparing;
+    private ResourceBarrier.Resource mResource;
+
+    // Whether the music was paused or stopped, possibly before it was ready to start:
+    private boolean mPaused = false;
+    private boolean mStopped = false;
 
 
     private void reset() {
+        if (mPreparing != null)
+            mPreparing.release();
+        mPreparing = null;
+
         if (mMediaPlayer != null)
             mMediaPlayer.release();
         mMediaPlayer = null;
     }
 
+    private void reportLoaded(boolean succeeded) {
+        if (mResource == null)
+            return;
+
+        if (succeeded)
+            mResource.succeeded();
+        else
+            mResource.failed();
+        mResource = null;
+    }
+
     private float currentVolumeLevel(Context context) {
         AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         float actualVolume = (float) audioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
@@ -88,8 +126,17 @@ class Music {
             = new MediaPlayer.OnPreparedListener() {
         @Override
         public void onPrepared(MediaPlayer mp) {
-            mMediaPlayer = mp;
-            mp.start();
+            synchronized (Music.this) {
+                // A player released by stop() or a later play() is no longer wanted:
+                if (mp != mPreparing)
+                    return;
+
+                mPreparing = null;
+                mMediaPlayer = mp;
+                if (!mPaused)
+                    mp.start();
+                reportLoaded(true);
+            }
         }
     };
 
@@ -98,6 +145,9 @@ class Music {
         @Override
         public boolean onError(MediaPlayer mp, int what, int extra) {
             Log.e("Music", "onError(): " + what + "  " + extra);
+            synchronized (Music.this) {
+                reportLoaded(false);
+            }
             // return true to avoid a pop-up
             return true;
         }
@@ -0,0 +1,129 @@
+package org.tbadg.memory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Waits for a set of independently loading resources. Each subsystem registers a Resource and
+ * reports it as succeeded or failed, from any thread; the listener is called on the UI thread as
+ * soon as nothing is pending any more, or when the timeout expires, whichever comes first.
+ * Resources still pending at the timeout are marked as timed out.
+ */
+class ResourceBarrier {
+    private static final String TAG = "ResourceBarrier";
+
+    public static final int PENDING = 0;
+    public static final int SUCCEEDED = 1;
+    public static final int FAILED = 2;
+    public static final int TIMED_OUT = 3;
+
+    private static final String[] STATUS_NAMES = {"pending", "succeeded", "failed", "timed out"};
+
+    interface OnReadyListener {
+        // allSucceeded is false if any resource failed or timed out:
+        void onReady(boolean allSucceeded);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Resource> mResources = new ArrayList<>();
+    private final long mTimeoutMsecs;
+    private final OnReadyListener mListener;
+
+    private boolean mStarted = false;
+    private boolean mReady = false;
+
+
+    public ResourceBarrier(long timeoutMsecs, OnReadyListener listener) {
+        mTimeoutMsecs = timeoutMsecs;
+        mListener = listener;
+    }
+
+    public Resource register(String name) {
+        // Resources must all be registered on the UI thread before start() is called:
+        Resource resource = new Resource(name);
+        mResources.add(resource);
+        return resource;
+    }
+
+    public void start() {
+        mStarted = true;
+        mHandler.postDelayed(mOnTimeout, mTimeoutMsecs);
+        checkReady();
+    }
+
+    private void complete(Resource resource, int status) {
+        if (resource.mStatus != PENDING || mReady)
+            return;
+
+        resource.mStatus = status;
+        long duration = SystemClock.uptimeMillis() - resource.mStartTime;
+        StartupTrace.instant(resource.mName + " " + STATUS_NAMES[status]);
+        Log.d(TAG, String.format("%s %s after %d ms", resource.mName, STATUS_NAMES[status],
+                                 duration));
+        checkReady();
+    }
+
+    private void checkReady() {
+        if (!mStarted || mReady)
+            return;
+
+        boolean allSucceeded = true;
+        for (Resource resource : mResources) {
+            if (resource.mStatus == PENDING)
+                return;
+
+            allSucceeded &= resource.mStatus == SUCCEEDED;
+        }
+
+        mReady = true;
+        mHandler.removeCallbacks(mOnTimeout);
+        mListener.onReady(allSucceeded);
+    }
+
+    private final Runnable mOnTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.e(TAG, "Resource loading timed-out!");
+
+            for (Resource resource : mResources)
+                complete(resource, TIMED_OUT);
+        }
+    };
+
+
+    //
+    // A single resource, as seen by the subsystem loading it:
+    //
+
+    class Resource {
+        private final String mName;
+        private final long mStartTime = SystemClock.uptimeMillis();
+        private int mStatus = PENDING;
+
+        private Resource(String name) {
+            mName = name;
+        }
+
+        public void succeeded() {
+            report(SUCCEEDED);
+        }
+
+        public void failed() {
+            report(FAILED);
+        }
+
+        private void report(final int status) {
+            // Completion is always handled on the UI thread, whichever thread reports it:
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    complete(Resource.this, status);
+                }
+            });
+        }
+    }
+}
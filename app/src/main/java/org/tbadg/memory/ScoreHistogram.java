@@ -0,0 +1,70 @@
+package org.tbadg.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How many games got each possible score. Scores are whole numbers from 0 to
+ * GameEngine.MAX_SCORE, so one counter per score keeps the exact distribution of any number of
+ * games in constant space, and histograms merge by adding their counts. A histogram serializes
+ * to a small fixed-size blob.
+ */
+class ScoreHistogram {
+    private static final int NUM_SCORES = GameEngine.MAX_SCORE + 1;
+    private static final int BYTES_PER_COUNT = 4;
+
+    private final int[] mCounts = new int[NUM_SCORES];
+    private int mNumGames = 0;
+
+
+    public static ScoreHistogram fromBytes(byte[] bytes) {
+        // A missing or short blob reads as fewer games:
+        ScoreHistogram histogram = new ScoreHistogram();
+        if (bytes == null)
+            return histogram;
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int score = 0; score < NUM_SCORES && buffer.remaining() >= BYTES_PER_COUNT; score++)
+            histogram.add(score, buffer.getInt());
+
+        return histogram;
+    }
+
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(NUM_SCORES * BYTES_PER_COUNT);
+        for (int count : mCounts)
+            buffer.putInt(count);
+
+        return buffer.array();
+    }
+
+    public void add(int score) {
+        add(score, 1);
+    }
+
+    public void add(int score, int numGames) {
+        mCounts[Math.max(0, Math.min(score, GameEngine.MAX_SCORE))] += numGames;
+        mNumGames += numGames;
+    }
+
+    public void merge(ScoreHistogram other) {
+        for (int score = 0; score < NUM_SCORES; score++)
+            mCounts[score] += other.mCounts[score];
+        mNumGames += other.mNumGames;
+    }
+
+    public int getNumGames() {
+        return mNumGames;
+    }
+
+    public int getPercentBeaten(int score) {
+        // The percentage of games with a lower score, rounded down, or -1 without any games:
+        if (mNumGames == 0)
+            return -1;
+
+        long beaten = 0;
+        for (int lower = 0; lower < Math.min(score, NUM_SCORES); lower++)
+            beaten += mCounts[lower];
+
+        return (int) (beaten * 100 / mNumGames);
+    }
+}
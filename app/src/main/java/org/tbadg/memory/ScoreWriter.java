@@ -0,0 +1,280 @@
+package org.tbadg.memory;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes game results to the scores table behind the game's back, on a single writer thread
+ * that owns all score inserts. Results are inserted through one compiled statement, and when
+ * several are pending they're written in a single transaction, together with the updates to
+ * their board sizes' statistics and score histograms. Written results are added to the
+ * leaderboard.
+ *
+ * The writer runs at background priority. requestFlush() raises it until every pending result
+ * has been written, without waiting for that, e.g. when the activity may soon be killed. flush()
+ * waits, and close() flushes and stops the writer, after which the database can be closed safely.
+ *
+ * Like the database, the app's writer is shared by the whole process and never closed, so
+ * nothing on the UI thread ever waits for it. Its thread is a daemon, which leaves nothing to
+ * stop when the process ends.
+ */
+class ScoreWriter {
+    private static final String TAG = "ScoreWriter";
+
+    private static final int MAX_BATCH = 32;
+    private static final long CLOSE_TIMEOUT_MSECS = 2000;
+
+    private static final String INSERT = "INSERT INTO " + DatabaseHelper.TABLE + " ("
+            + DatabaseHelper.SCORE + ", " + DatabaseHelper.MATCHES + ", "
+            + DatabaseHelper.GUESSES + ", " + DatabaseHelper.ELAPSED_TIME + ") VALUES (?, ?, ?, ?)";
+
+    // Statistics are updated in place, after making sure the board size has a row:
+    private static final String INSERT_STATS = "INSERT OR IGNORE INTO "
+            + DatabaseHelper.STATS_TABLE + " (" + DatabaseHelper.MATCHES + ", "
+            + DatabaseHelper.GAMES + ", " + DatabaseHelper.SCORE_SUM + ", "
+            + DatabaseHelper.BEST_SCORE + ", " + DatabaseHelper.TIME_SUM + ", "
+            + DatabaseHelper.BEST_TIME + ") VALUES (?, 0, 0, ?, 0, ?)";
+    private static final String UPDATE_STATS = "UPDATE " + DatabaseHelper.STATS_TABLE + " SET "
+            + DatabaseHelper.GAMES + " = " + DatabaseHelper.GAMES + " + 1, "
+            + DatabaseHelper.SCORE_SUM + " = " + DatabaseHelper.SCORE_SUM + " + ?1, "
+            + DatabaseHelper.BEST_SCORE + " = max(" + DatabaseHelper.BEST_SCORE + ", ?1), "
+            + DatabaseHelper.TIME_SUM + " = " + DatabaseHelper.TIME_SUM + " + ?2, "
+            + DatabaseHelper.BEST_TIME + " = min(" + DatabaseHelper.BEST_TIME + ", ?2)"
+            + " WHERE " + DatabaseHelper.MATCHES + " = ?3";
+    private static final String QUERY_HISTOGRAM = "SELECT " + DatabaseHelper.SCORE_HISTOGRAM
+            + " FROM " + DatabaseHelper.STATS_TABLE + " WHERE " + DatabaseHelper.MATCHES + " = ?";
+    private static final String UPDATE_HISTOGRAM = "UPDATE " + DatabaseHelper.STATS_TABLE
+            + " SET " + DatabaseHelper.SCORE_HISTOGRAM + " = ? WHERE "
+            + DatabaseHelper.MATCHES + " = ?";
+
+    private static ScoreWriter sInstance = null;
+
+    private final DatabaseHelper mDb;
+    private final Leaderboard mLeaderboard;
+    private final LinkedBlockingQueue<ContentValues> mQueue = new LinkedBlockingQueue<>();
+    private final Thread mThread;
+
+    // Results added but not yet written, guarded by this:
+    private int mNumPending = 0;
+    private boolean mClosed = false;
+
+    // Whether the writer runs at normal priority until nothing is pending, guarded by this:
+    private boolean mFlushing = false;
+    private int mTid = 0;
+
+    // Only used on the writer thread:
+    private SQLiteStatement mInsert = null;
+    private SQLiteStatement mInsertStats = null;
+    private SQLiteStatement mUpdateStats = null;
+    private SQLiteStatement mUpdateHistogram = null;
+
+
+    public static synchronized ScoreWriter getInstance(Context context) {
+        if (sInstance == null)
+            sInstance = new ScoreWriter(DatabaseHelper.getInstance(context),
+                                        Leaderboard.getInstance(context));
+        return sInstance;
+    }
+
+    ScoreWriter(DatabaseHelper db, Leaderboard leaderboard) {
+        mDb = db;
+        mLeaderboard = leaderboard;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ScoreWriter.this) {
+                    mTid = Process.myTid();
+                    if (!mFlushing)
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                }
+                writeUntilClosed();
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    public void add(ContentValues result) {
+        synchronized (this) {
+            if (mClosed)
+                throw new IllegalStateException("Score writer is closed.");
+            mNumPending++;
+        }
+
+        mQueue.add(result);
+    }
+
+    public synchronized void requestFlush() {
+        // Doesn't wait, as the writer commits the results in order anyway, just sooner:
+        if (mNumPending == 0)
+            return;
+
+        mFlushing = true;
+        if (mTid != 0)
+            Process.setThreadPriority(mTid, Process.THREAD_PRIORITY_DEFAULT);
+    }
+
+    public synchronized boolean flush(long timeoutMsecs) {
+        // Returns whether every result added so far has been written:
+        long deadline = System.currentTimeMillis() + timeoutMsecs;
+        long remaining = timeoutMsecs;
+
+        while (mNumPending > 0 && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        return mNumPending == 0;
+    }
+
+    public void close() {
+        if (!flush(CLOSE_TIMEOUT_MSECS))
+            Log.e(TAG, "Closing with unwritten scores");
+
+        synchronized (this) {
+            mClosed = true;
+        }
+
+        mThread.interrupt();
+        try {
+            mThread.join(CLOSE_TIMEOUT_MSECS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeUntilClosed() {
+        ArrayList<ContentValues> batch = new ArrayList<>(MAX_BATCH);
+        long[] ids = new long[MAX_BATCH];
+
+        try {
+            while (true) {
+                // Wait for a result, then take whatever else is pending along with it:
+                batch.add(mQueue.take());
+                mQueue.drainTo(batch, MAX_BATCH - 1);
+
+                // The leaderboard skips results it already loaded, so it's only told once the
+                // batch is committed, without holding it up during the write:
+                if (write(batch, ids)) {
+                    for (int i = 0; i < batch.size(); i++)
+                        addToLeaderboard(ids[i], batch.get(i));
+                }
+
+                synchronized (this) {
+                    mNumPending -= batch.size();
+                    if (mNumPending == 0 && mFlushing) {
+                        mFlushing = false;
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    }
+                    notifyAll();
+                }
+                batch.clear();
+            }
+
+        } catch (InterruptedException e) {
+            // Closed
+        }
+
+        if (mInsert != null) {
+            mInsert.close();
+            mInsertStats.close();
+            mUpdateStats.close();
+            mUpdateHistogram.close();
+        }
+    }
+
+    private boolean write(ArrayList<ContentValues> batch, long[] ids) {
+        // Returns whether the batch was written, with the row IDs of its results:
+        boolean inTransaction = false;
+        SQLiteDatabase db = null;
+
+        try {
+            db = mDb.getWritableDatabase();
+            if (mInsert == null) {
+                mInsert = db.compileStatement(INSERT);
+                mInsertStats = db.compileStatement(INSERT_STATS);
+                mUpdateStats = db.compileStatement(UPDATE_STATS);
+                mUpdateHistogram = db.compileStatement(UPDATE_HISTOGRAM);
+            }
+
+            // A score and its statistics are written together or not at all:
+            db.beginTransaction();
+            inTransaction = true;
+
+            for (int i = 0; i < batch.size(); i++) {
+                ContentValues result = batch.get(i);
+                long score = result.getAsLong(DatabaseHelper.SCORE);
+                long matches = result.getAsLong(DatabaseHelper.MATCHES);
+                long elapsedTime = result.getAsLong(DatabaseHelper.ELAPSED_TIME);
+
+                mInsert.bindLong(1, score);
+                mInsert.bindLong(2, matches);
+                mInsert.bindLong(3, result.getAsLong(DatabaseHelper.GUESSES));
+                mInsert.bindLong(4, elapsedTime);
+                ids[i] = mInsert.executeInsert();
+
+                mInsertStats.bindLong(1, matches);
+                mInsertStats.bindLong(2, score);
+                mInsertStats.bindLong(3, elapsedTime);
+                mInsertStats.executeInsert();
+
+                mUpdateStats.bindLong(1, score);
+                mUpdateStats.bindLong(2, elapsedTime);
+                mUpdateStats.bindLong(3, matches);
+                mUpdateStats.executeUpdateDelete();
+
+                updateHistogram(db, matches, score);
+            }
+
+            db.setTransactionSuccessful();
+            Log.d(TAG, String.format("Wrote %d score(s)", batch.size()));
+            return true;
+
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Failed to write scores", e);
+            return false;
+
+        } finally {
+            if (inTransaction)
+                db.endTransaction();
+        }
+    }
+
+    private void updateHistogram(SQLiteDatabase db, long matches, long score) {
+        // A board size's histogram is a small blob, so it's simply read, added to and rewritten:
+        Cursor cursor = db.rawQuery(QUERY_HISTOGRAM, new String[] {String.valueOf(matches)});
+        ScoreHistogram histogram;
+        try {
+            histogram = ScoreHistogram.fromBytes(cursor.moveToFirst() ? cursor.getBlob(0) : null);
+        } finally {
+            cursor.close();
+        }
+
+        histogram.add((int) score);
+        mUpdateHistogram.bindBlob(1, histogram.toBytes());
+        mUpdateHistogram.bindLong(2, matches);
+        mUpdateHistogram.executeUpdateDelete();
+    }
+
+    private void addToLeaderboard(long id, ContentValues result) {
+        // Only once the result has been committed, so a load either sees it or is told of it:
+        if (mLeaderboard != null && id != -1)
+            mLeaderboard.add(id, result.getAsInteger(DatabaseHelper.SCORE),
+                             result.getAsInteger(DatabaseHelper.MATCHES),
+                             result.getAsInteger(DatabaseHelper.ELAPSED_TIME));
+    }
+}
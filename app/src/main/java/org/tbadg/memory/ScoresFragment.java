@@ -1,7 +1,6 @@
 package org.tbadg.memory;
 
 import android.app.ListFragment;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.os.AsyncTask;
@@ -20,7 +19,7 @@ import android.widget.TextView;
 public class ScoresFragment extends ListFragment {
 
     private static final String TAG = "ScoresFragment";
-    private static final String SCORES_TO_DISPLAY = "5";
+    private static final int SCORES_TO_DISPLAY = 5;
 
 
 
@@ -37,7 +36,13 @@ public class ScoresFragment extends ListFragment {
                 new int[] {R.id.score, R.id.cards, R.id.time}, 0);
 
         setListAdapter(mAdapter);
-        new LoadCursorTask().execute();
+
+        // The best scores are served from memory once they've been loaded:
+        Leaderboard leaderboard = Leaderboard.getInstance(getActivity());
+        if (leaderboard.isLoaded())
+            mAdapter.changeCursor(leaderboard.getTopScores(SCORES_TO_DISPLAY));
+        else
+            new LoadCursorTask().execute();
 
         return scoresView;
     }
@@ -72,34 +77,26 @@ public class ScoresFragment extends ListFragment {
         }
     }
 
-    private class LoadCursorTask extends AsyncTask<ContentValues, Void, Cursor> {
-        DatabaseHelper mDb = null;
+    private class LoadCursorTask extends AsyncTask<Void, Void, Cursor> {
+        private final Leaderboard mLeaderboard = Leaderboard.getInstance(getActivity());
 
         @Override
         protected void onPreExecute() {
             super.onPreExecute();
 
-            Log.e(TAG, "Loading scores into cursor...");
-            mDb = new DatabaseHelper(getActivity());
+            Log.d(TAG, "Loading scores into cursor...");
         }
 
         @Override
-        protected Cursor doInBackground(ContentValues... cv) {
-            return mDb.getReadableDatabase()
-                    .query(DatabaseHelper.TABLE,
-                            new String[]{ "ROWID AS _id",
-                                          DatabaseHelper.SCORE, DatabaseHelper.MATCHES,
-                                          DatabaseHelper.ELAPSED_TIME},
-                            null, null, null, null, DatabaseHelper.SCORE + " desc",
-                            SCORES_TO_DISPLAY);
+        protected Cursor doInBackground(Void... params) {
+            mLeaderboard.load();
+            return mLeaderboard.getTopScores(SCORES_TO_DISPLAY);
         }
 
         @Override
         protected void onPostExecute(Cursor result) {
-            Log.e(TAG, "Rows loaded = " + result.getCount());
+            Log.d(TAG, "Rows loaded = " + result.getCount());
             ((SimpleCursorAdapter)getListAdapter()).changeCursor(result);
-
-            mDb.close();
         }
     }
 }
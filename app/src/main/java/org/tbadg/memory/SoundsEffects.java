@@ -6,8 +6,6 @@ import android.media.AudioManager;
 import android.media.SoundPool;
 import android.util.Log;
 
-import java.util.HashMap;
-
 public class SoundsEffects {
 
     private static final String TAG = "SoundEffects";
@@ -21,9 +19,42 @@ public class SoundsEffects {
         START
     }
 
-    public SoundsEffects(Context context) {
-        mContext = context;
-        setup();
+    // Type.values() returns a new array on every call:
+    private static final Type[] TYPES = Type.values();
+
+    // What the sounds need of a SoundPool, so tests can play them without one:
+    interface SoundPlayer {
+        // Returns the sound's ID, and loading it ends with a call to onLoadComplete(), or 0 if
+        // it can't be loaded at all:
+        int load(int resourceId);
+
+        void play(int soundId, float volume, int loop);
+
+        void pause(int soundId);
+
+        void stop(int soundId);
+    }
+
+    public SoundsEffects(Context context, ResourceBarrier.Resource resource) {
+        mResource = resource;
+        mVolume = readVolume(context);
+        mPlayer = new SoundPoolPlayer(context);
+    }
+
+    SoundsEffects(SoundPlayer player, float volume, ResourceBarrier.Resource resource) {
+        mResource = resource;
+        mVolume = volume;
+        mPlayer = player;
+    }
+
+    public void load() {
+        // May be called on a background thread; the sounds are ready once the resource
+        // passed to the constructor is reported:
+        loadSound(Type.FLIP, R.raw.flip);
+        loadSound(Type.NO_MATCH, R.raw.no_match);
+        loadSound(Type.MATCH, R.raw.match);
+        loadSound(Type.WIN, R.raw.win);
+        loadSound(Type.START, R.raw.start);
     }
 
     public void play(Type type) {
@@ -31,7 +62,7 @@ public class SoundsEffects {
             return;
 
         // TODO: no failure detection (== 0)
-        mSoundPool.play(soundIdForType(type), mVolume, mVolume, NORMAL_PRIORITY, NO_LOOP, NORMAL_SPEED);
+        mPlayer.play(soundIdForType(type), mVolume, NO_LOOP);
     }
 
     public void playLoop(Type type) {
@@ -39,19 +70,15 @@ public class SoundsEffects {
             return;
 
         // TODO: no failure detection (== 0)
-        mSoundPool.play(soundIdForType(type), mVolume, mVolume, NORMAL_PRIORITY, LOOP_FOREVER, NORMAL_SPEED);
+        mPlayer.play(soundIdForType(type), mVolume, LOOP_FOREVER);
     }
 
     public void pause(Type type) {
-        mSoundPool.pause(soundIdForType(type));
+        mPlayer.pause(soundIdForType(type));
     }
 
     public void stop(Type type) {
-        mSoundPool.stop(soundIdForType(type));
-    }
-
-    public static boolean isResourceLoadingFinished() {
-        return resourceLoadingFinished;
+        mPlayer.stop(soundIdForType(type));
     }
 
     /**
@@ -66,66 +93,127 @@ public class SoundsEffects {
     private static final float NORMAL_SPEED = 1f;
     private static final int NORMAL_PRIORITY = 1;
 
-    private SoundPool mSoundPool;
-    private float mActualVolume;
-    private float mMaxVolume;
-    private float mVolume;
-    private AudioManager mAudioManager;
+    private final SoundPlayer mPlayer;
+    private final float mVolume;
 
-    private final HashMap<Type, Integer> mTypeToSoundIdMap = new HashMap<>();
-    private final HashMap<Integer, Boolean> mTypeIsLoadedMap = new HashMap<>();
+    // Indexed by Type ordinal, so playing a sound doesn't box or allocate:
+    private final int[] mSoundIds = new int[TYPES.length];
+    private final boolean[] mIsLoaded = new boolean[TYPES.length];
 
     private int soundsLoaded = 0;
-    private static boolean resourceLoadingFinished = false;
+    private int soundsFailed = 0;
 
-    private final Context mContext;
+    private final ResourceBarrier.Resource mResource;
 
-    private void setup() {
+    private static float readVolume(Context context) {
         // AudioManager audio settings for adjusting the volume
-        mAudioManager = (AudioManager) mContext.getSystemService(Context.AUDIO_SERVICE);
-        mActualVolume = (float) mAudioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
-        mMaxVolume = (float) mAudioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
-        mVolume = mActualVolume / mMaxVolume;
-
-        // Load the sounds
-        int srcQualityNotUsed = 0;
-        mSoundPool = new SoundPool(MAX_SIMULTANEOUS_SOUNDS, AUDIO_STREAM_TYPE, srcQualityNotUsed);
-        mSoundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
-            @Override
-            public void onLoadComplete(SoundPool soundPool, int soundId, int status) {
-                final int SUCCESS = 0;
-                if (status == SUCCESS)
-                    mTypeIsLoadedMap.put(soundId, true);
-
-                if (++soundsLoaded >= Type.values().length)
-                    resourceLoadingFinished = true;
-
-                Log.d(TAG, String.format("soundsLoaded=%d, values=%s, Type.values().length= %d," +
-                                         " resourceLoadingFinished=%b",
-                                          soundsLoaded, Type.values().toString(),
-                                          Type.values().length, resourceLoadingFinished));
-            }
-        });
+        AudioManager audioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
+        float actualVolume = (float) audioManager.getStreamVolume(AudioManager.STREAM_MUSIC);
+        float maxVolume = (float) audioManager.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+        return actualVolume / maxVolume;
+    }
 
-        loadSound(Type.FLIP, R.raw.flip);
-        loadSound(Type.NO_MATCH, R.raw.no_match);
-        loadSound(Type.MATCH, R.raw.match);
-        loadSound(Type.WIN, R.raw.win);
-        loadSound(Type.START, R.raw.start);
+    void onLoadComplete(int soundId, int status) {
+        final int SUCCESS = 0;
+        EventTrace.record(EventTrace.SOUND_LOADED, soundId, status);
+        finishLoading(soundId, status == SUCCESS);
     }
 
     private void loadSound(Type type, int resourceId) {
-        int priorityNotUsed = 1;
-        int soundId = mSoundPool.load(mContext, resourceId, priorityNotUsed);
-        mTypeToSoundIdMap.put(type, soundId);
-        mTypeIsLoadedMap.put(soundId, false);
+        // Holding the lock keeps the load-complete callback from running before the sound's
+        // ID has been recorded:
+        int soundId;
+        synchronized (this) {
+            soundId = mPlayer.load(resourceId);
+            mSoundIds[type.ordinal()] = soundId;
+            mIsLoaded[type.ordinal()] = false;
+        }
+
+        // No load-complete callback ever follows a failed load:
+        if (soundId == 0) {
+            Log.e(TAG, "Failed to load the " + type + " sound");
+            finishLoading(soundId, false);
+        }
+    }
+
+    private void finishLoading(int soundId, boolean succeeded) {
+        // The resource is reported once every sound has loaded or failed, outside the lock:
+        boolean allFinished;
+        boolean anyFailed;
+        synchronized (this) {
+            if (succeeded)
+                markLoaded(soundId);
+            else
+                soundsFailed++;
+            soundsLoaded++;
+
+            allFinished = soundsLoaded == TYPES.length;
+            anyFailed = soundsFailed > 0;
+        }
+
+        if (!allFinished || mResource == null)
+            return;
+
+        if (anyFailed)
+            mResource.failed();
+        else
+            mResource.succeeded();
+    }
+
+    private void markLoaded(int soundId) {
+        for (int i = 0; i < TYPES.length; i++)
+            if (mSoundIds[i] == soundId)
+                mIsLoaded[i] = true;
+    }
+
+    private synchronized boolean isLoaded(Type type) {
+        return mIsLoaded[type.ordinal()];
     }
 
-    private boolean isLoaded(Type type) {
-        return mTypeIsLoadedMap.get(mTypeToSoundIdMap.get(type));
+    private synchronized int soundIdForType(Type type) {
+        // 0 (no sound) until the type's sound has been loaded:
+        return mSoundIds[type.ordinal()];
     }
 
-    private int soundIdForType(Type type) {
-        return mTypeToSoundIdMap.get(type);
+
+    private class SoundPoolPlayer implements SoundPlayer {
+        private final Context mContext;
+        private final SoundPool mSoundPool;
+
+        private SoundPoolPlayer(Context context) {
+            mContext = context;
+
+            // Create the pool the sounds are loaded into by load()
+            int srcQualityNotUsed = 0;
+            mSoundPool = new SoundPool(MAX_SIMULTANEOUS_SOUNDS, AUDIO_STREAM_TYPE,
+                                       srcQualityNotUsed);
+            mSoundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+                @Override
+                public void onLoadComplete(SoundPool soundPool, int soundId, int status) {
+                    SoundsEffects.this.onLoadComplete(soundId, status);
+                }
+            });
+        }
+
+        @Override
+        public int load(int resourceId) {
+            int priorityNotUsed = 1;
+            return mSoundPool.load(mContext, resourceId, priorityNotUsed);
+        }
+
+        @Override
+        public void play(int soundId, float volume, int loop) {
+            mSoundPool.play(soundId, volume, volume, NORMAL_PRIORITY, loop, NORMAL_SPEED);
+        }
+
+        @Override
+        public void pause(int soundId) {
+            mSoundPool.pause(soundId);
+        }
+
+        @Override
+        public void stop(int soundId) {
+            mSoundPool.stop(soundId);
+        }
     }
 }
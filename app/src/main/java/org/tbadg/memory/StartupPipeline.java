@@ -0,0 +1,190 @@
+package org.tbadg.memory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the steps of a cold start off the critical path. Each step runs either on a small,
+ * bounded pool of background threads or on the UI thread, and only once every step it depends
+ * on has finished. The firstDraw() milestone lets non-essential steps wait until the first
+ * frame has been drawn.
+ *
+ * Steps must be added on the UI thread before start(); all scheduling happens on the UI thread.
+ */
+class StartupPipeline {
+    private static final String TAG = "StartupPipeline";
+
+    private static final int NUM_THREADS = 2;
+    private static final int KEEP_ALIVE_SECS = 5;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+    private final ArrayList<Step> mSteps = new ArrayList<>();
+    private final long mStartTime = SystemClock.uptimeMillis();
+    private boolean mStarted = false;
+
+
+    public StartupPipeline() {
+        mExecutor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS,
+                                           KEEP_ALIVE_SECS, TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<Runnable>(), sThreadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public Step inBackground(String name, Runnable work, Step... dependencies) {
+        return add(new Step(name, work, true), dependencies);
+    }
+
+    public Step onUiThread(String name, Runnable work, Step... dependencies) {
+        return add(new Step(name, work, false), dependencies);
+    }
+
+    public Step firstDraw(final View view) {
+        // A milestone step that finishes once the view has drawn its first frame:
+        final Step step = add(new Step("first draw", null, false));
+        step.mScheduled = true;
+
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+
+                // Posted from pre-draw, this runs right after the frame has been drawn:
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finished(step);
+                    }
+                });
+                return true;
+            }
+        });
+
+        return step;
+    }
+
+    public void start() {
+        mStarted = true;
+        for (Step step : mSteps)
+            scheduleIfReady(step);
+    }
+
+    public void shutdown() {
+        // Steps already running are allowed to finish, but nothing new is scheduled:
+        mStarted = false;
+        mExecutor.shutdown();
+    }
+
+    private Step add(Step step, Step... dependencies) {
+        for (Step dependency : dependencies) {
+            if (!dependency.mFinished) {
+                step.mPendingDependencies++;
+                dependency.mDependents.add(step);
+            }
+        }
+
+        mSteps.add(step);
+        if (mStarted)
+            scheduleIfReady(step);
+
+        return step;
+    }
+
+    private void scheduleIfReady(final Step step) {
+        if (!mStarted || step.mScheduled || step.mPendingDependencies > 0)
+            return;
+
+        step.mScheduled = true;
+        if (!step.mInBackground) {
+            step.run();
+            finished(step);
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                step.run();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finished(step);
+                    }
+                });
+            }
+        });
+    }
+
+    private void finished(Step step) {
+        step.mFinished = true;
+        if (step.mWork == null)
+            StartupTrace.instant(step.mName);
+        Log.d(TAG, String.format("%s finished at %d ms", step.mName,
+                                 SystemClock.uptimeMillis() - mStartTime));
+
+        for (Step dependent : step.mDependents) {
+            dependent.mPendingDependencies--;
+            scheduleIfReady(dependent);
+        }
+    }
+
+    private static final ThreadFactory sThreadFactory = new ThreadFactory() {
+        private int mCount = 0;
+
+        @Override
+        public synchronized Thread newThread(final Runnable runnable) {
+            // Startup work mustn't compete with the UI thread for the first frame:
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, TAG + " #" + ++mCount);
+        }
+    };
+
+
+    //
+    // A single step of the pipeline:
+    //
+
+    static class Step {
+        private final String mName;
+        private final Runnable mWork;
+        private final boolean mInBackground;
+        private final ArrayList<Step> mDependents = new ArrayList<>();
+
+        private int mPendingDependencies = 0;
+        private boolean mScheduled = false;
+        private boolean mFinished = false;
+
+        private Step(String name, Runnable work, boolean inBackground) {
+            mName = name;
+            mWork = work;
+            mInBackground = inBackground;
+        }
+
+        private void run() {
+            StartupTrace.begin(mName);
+            try {
+                mWork.run();
+            } catch (RuntimeException e) {
+                // A failed step mustn't hold up the ones depending on it:
+                Log.e(TAG, "Startup step " + mName + " failed", e);
+            }
+            StartupTrace.end(mName);
+        }
+    }
+}
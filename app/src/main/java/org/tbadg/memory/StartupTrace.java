@@ -0,0 +1,126 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Process;
+import android.os.Trace;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Records named begin/end sections of a cold start into a preallocated buffer and writes them
+ * out as a Chrome trace (load the file in chrome://tracing), so startup time can be compared
+ * release over release. Sections are also passed on to systrace where the platform supports it.
+ *
+ * Recording is cheap and thread-safe, and stops once finish() is called or the buffer is full.
+ */
+final class StartupTrace {
+    private static final String TAG = "StartupTrace";
+
+    private static final String FILE_NAME = "startup_trace.json";
+    private static final int MAX_EVENTS = 256;
+
+    private static final char PHASE_BEGIN = 'B';
+    private static final char PHASE_END = 'E';
+    private static final char PHASE_INSTANT = 'i';
+
+    private static final String[] sNames = new String[MAX_EVENTS];
+    private static final char[] sPhases = new char[MAX_EVENTS];
+    private static final long[] sTimes = new long[MAX_EVENTS];
+    private static final int[] sThreads = new int[MAX_EVENTS];
+    private static int sNumEvents = 0;
+    private static int sNumDropped = 0;
+    private static boolean sFinished = false;
+
+
+    private StartupTrace() {
+    }
+
+    public static void begin(String name) {
+        record(name, PHASE_BEGIN);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            Trace.beginSection(name);
+    }
+
+    public static void end(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+            Trace.endSection();
+        record(name, PHASE_END);
+    }
+
+    public static void instant(String name) {
+        record(name, PHASE_INSTANT);
+    }
+
+    public static void finish(final Context context) {
+        // Stop recording and write the trace out on a background thread:
+        synchronized (StartupTrace.class) {
+            if (sFinished)
+                return;
+            sFinished = true;
+        }
+
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                write(new File(context.getFilesDir(), FILE_NAME));
+                return null;
+            }
+        }.execute();
+    }
+
+    private static synchronized void record(String name, char phase) {
+        if (sFinished)
+            return;
+
+        if (sNumEvents >= MAX_EVENTS) {
+            sNumDropped++;
+            return;
+        }
+
+        sNames[sNumEvents] = name;
+        sPhases[sNumEvents] = phase;
+        sTimes[sNumEvents] = System.nanoTime();
+        sThreads[sNumEvents] = Process.myTid();
+        sNumEvents++;
+    }
+
+    private static void write(File file) {
+        // Nothing is recorded after finish(), so the buffer can be read without the lock:
+        int pid = Process.myPid();
+        Writer out = null;
+
+        try {
+            out = new FileWriter(file);
+            out.write("{\"traceEvents\":[\n");
+
+            for (int i = 0; i < sNumEvents; i++) {
+                out.write(String.format(
+                        "{\"name\":\"%s\",\"ph\":\"%c\",\"ts\":%d,\"pid\":%d,\"tid\":%d%s}%s\n",
+                        sNames[i], sPhases[i], sTimes[i] / 1000, pid, sThreads[i],
+                        sPhases[i] == PHASE_INSTANT ? ",\"s\":\"p\"" : "",
+                        i < sNumEvents - 1 ? "," : ""));
+            }
+
+            out.write("],\"displayTimeUnit\":\"ms\"}\n");
+            Log.d(TAG, String.format("Wrote %d events to %s, %d dropped",
+                                     sNumEvents, file, sNumDropped));
+
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write startup trace", e);
+
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.tbadg.memory;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Measures how long a tap takes to show up on screen. Each tap that flips a card is timestamped
+ * from its touch event, through the board handling it (picking the card, starting the flip and
+ * playing the sound), to the first animation frame of the flip. The stages are aggregated into
+ * fixed-memory histograms whose percentiles can be shown on screen or written to a file.
+ *
+ * All times are SystemClock.uptimeMillis() based, like MotionEvent.getEventTime(). Frames may be
+ * reported from a render thread, so every method is thread-safe.
+ */
+final class TapLatency {
+    private static final String TAG = "TapLatency";
+
+    private static final String FILE_NAME = "tap_latency.txt";
+    private static final int MAX_LATENCY_MSECS = 500;
+
+    // Measured stages:
+    private static final int STAGE_INPUT = 0;
+    private static final int STAGE_HANDLER = 1;
+    private static final int STAGE_FIRST_FRAME = 2;
+    private static final int STAGE_TOTAL = 3;
+    private static final String[] STAGE_NAMES = {"input", "handler", "first frame", "total"};
+
+    private static final LatencyHistogram[] sHistograms = new LatencyHistogram[] {
+            new LatencyHistogram(MAX_LATENCY_MSECS), new LatencyHistogram(MAX_LATENCY_MSECS),
+            new LatencyHistogram(MAX_LATENCY_MSECS), new LatencyHistogram(MAX_LATENCY_MSECS)};
+
+    // The tap waiting for its first frame:
+    private static final int NO_TAP = -1;
+    private static int sPosition = NO_TAP;
+    private static long sEventTime;
+    private static long sHandlerTime;
+    private static long sFlipTime;
+
+
+    private TapLatency() {
+    }
+
+    public static synchronized void onTap(long eventTime) {
+        sEventTime = eventTime;
+        sHandlerTime = SystemClock.uptimeMillis();
+    }
+
+    public static synchronized void onFlipStarted(int position) {
+        // Only taps that flip a card are measured:
+        sPosition = position;
+        sFlipTime = SystemClock.uptimeMillis();
+        sHistograms[STAGE_INPUT].record(sHandlerTime - sEventTime);
+        sHistograms[STAGE_HANDLER].record(sFlipTime - sHandlerTime);
+    }
+
+    public static synchronized void onFirstFrame(int position) {
+        if (position != sPosition)
+            return;
+
+        long now = SystemClock.uptimeMillis();
+        sHistograms[STAGE_FIRST_FRAME].record(now - sFlipTime);
+        sHistograms[STAGE_TOTAL].record(now - sEventTime);
+        sPosition = NO_TAP;
+    }
+
+    public static synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder(String.format(
+                "Tap latency, %d taps (ms)", sHistograms[STAGE_TOTAL].getCount()));
+
+        for (int stage = 0; stage < sHistograms.length; stage++) {
+            LatencyHistogram histogram = sHistograms[stage];
+            summary.append(String.format("\n%-11s p50 %3d  p95 %3d  p99 %3d  max %3d",
+                                         STAGE_NAMES[stage], histogram.getPercentile(50),
+                                         histogram.getPercentile(95),
+                                         histogram.getPercentile(99), histogram.getMax()));
+        }
+
+        return summary.toString();
+    }
+
+    public static void dump(final Context context) {
+        final String summary = getSummary();
+
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                write(new File(context.getFilesDir(), FILE_NAME), summary);
+                return null;
+            }
+        }.execute();
+    }
+
+    private static void write(File file, String summary) {
+        Writer out = null;
+
+        try {
+            out = new FileWriter(file);
+            out.write(summary);
+            out.write('\n');
+            Log.d(TAG, "Wrote tap latency to " + file);
+
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write tap latency", e);
+
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
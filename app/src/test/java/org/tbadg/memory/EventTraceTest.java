@@ -0,0 +1,51 @@
+package org.tbadg.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventTraceTest {
+
+    @Before
+    public void setUp() {
+        EventTrace.clear();
+    }
+
+    @Test
+    public void recordsDecodeOldestFirst() throws IOException {
+        EventTrace.append(EventTrace.TAP, 3, GameEngine.PICK_FIRST);
+        EventTrace.append(EventTrace.FLIP_TO_FRONT, 3, 7);
+
+        String[] lines = decode();
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].endsWith("tap(position, result) 3 " + GameEngine.PICK_FIRST));
+        assertTrue(lines[1].endsWith("flip to front(position, face) 3 7"));
+    }
+
+    @Test
+    public void fullBufferKeepsNewestRecords() throws IOException {
+        for (int i = 0; i < 5000; i++)
+            EventTrace.append(EventTrace.SLOW_FRAME, i, 0);
+
+        String[] lines = decode();
+        assertEquals(1024, lines.length);
+        assertTrue(lines[0].endsWith(" " + (5000 - 1024) + " 0"));
+        assertTrue(lines[lines.length - 1].endsWith(" 4999 0"));
+    }
+
+    private static String[] decode() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EventTrace.write(bytes);
+
+        StringWriter text = new StringWriter();
+        EventTrace.decode(new ByteArrayInputStream(bytes.toByteArray()), text);
+        return text.toString().split("\n");
+    }
+}
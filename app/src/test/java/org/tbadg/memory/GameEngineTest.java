@@ -0,0 +1,160 @@
+package org.tbadg.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GameEngineTest {
+
+    private GameEngine mEngine;
+
+    @Before
+    public void setUp() {
+        // A 2 x 3 board with 2 matches and two empty spots: { 0, 1, -, 1, 0, - }
+        mEngine = new GameEngine();
+        mEngine.newGame(2, 6);
+        mEngine.setFace(0, 0);
+        mEngine.setFace(1, 1);
+        mEngine.setFace(3, 1);
+        mEngine.setFace(4, 0);
+    }
+
+    @Test
+    public void firstPickIsRemembered() {
+        assertEquals(GameEngine.PICK_FIRST, mEngine.pick(0));
+        assertEquals(0, mEngine.getFirstPick());
+        assertEquals(GameEngine.NO_CARD, mEngine.getSecondPick());
+        assertEquals(0, mEngine.getGuessesMade());
+    }
+
+    @Test
+    public void sameCardTwiceIsIgnored() {
+        mEngine.pick(0);
+        assertEquals(GameEngine.PICK_IGNORED, mEngine.pick(0));
+    }
+
+    @Test
+    public void emptySpotsAreIgnored() {
+        assertEquals(GameEngine.PICK_IGNORED, mEngine.pick(2));
+        assertEquals(GameEngine.PICK_IGNORED, mEngine.pick(5));
+        assertEquals(GameEngine.PICK_IGNORED, mEngine.pick(6));
+    }
+
+    @Test
+    public void thirdPickIsIgnoredUntilTurnEnds() {
+        mEngine.pick(0);
+        assertEquals(GameEngine.PICK_NO_MATCH, mEngine.pick(1));
+        assertEquals(GameEngine.PICK_IGNORED, mEngine.pick(3));
+
+        mEngine.endTurn();
+        assertEquals(GameEngine.PICK_FIRST, mEngine.pick(3));
+    }
+
+    @Test
+    public void matchedCardsAreRemoved() {
+        mEngine.pick(1);
+        assertEquals(GameEngine.PICK_MATCH, mEngine.pick(3));
+        assertTrue(mEngine.isRemoved(1));
+        assertTrue(mEngine.isRemoved(3));
+        assertFalse(mEngine.isRemoved(0));
+
+        mEngine.endTurn();
+        assertEquals(GameEngine.PICK_IGNORED, mEngine.pick(1));
+    }
+
+    @Test
+    public void lastMatchWinsAndScores() {
+        mEngine.pick(0);
+        mEngine.pick(1);
+        mEngine.endTurn();
+        mEngine.pick(1);
+        mEngine.pick(3);
+        mEngine.endTurn();
+        mEngine.pick(0);
+
+        assertEquals(GameEngine.PICK_WIN, mEngine.pick(4));
+        assertTrue(mEngine.isWon());
+        assertEquals(3, mEngine.getGuessesMade());
+        assertEquals(100, mEngine.getScore());
+    }
+
+    @Test
+    public void dealGivesEveryFaceExactlyTwice() {
+        mEngine.deal(24, 6, 8);
+
+        int[] counts = new int[24];
+        for (int position = 0; position < 48; position++)
+            counts[mEngine.getFace(position)]++;
+
+        for (int count : counts)
+            assertEquals(2, count);
+    }
+
+    @Test
+    public void dealLeavesCornersEmptyForTwoSpareSpots() {
+        // 5 matches on a 3 x 4 board:
+        mEngine.deal(5, 3, 4);
+
+        assertEquals(GameEngine.EMPTY, mEngine.getFace(3));
+        assertEquals(GameEngine.EMPTY, mEngine.getFace(11));
+        assertEquals(10, countCards(12));
+    }
+
+    @Test
+    public void dealLeavesMiddleEmptyForOneSpareSpot() {
+        // 4 matches on a 3 x 3 board:
+        mEngine.deal(4, 3, 3);
+
+        assertEquals(GameEngine.EMPTY, mEngine.getFace(4));
+        assertEquals(8, countCards(9));
+    }
+
+    @Test
+    public void seededDealsAreReproducible() {
+        int[] first = new int[48];
+        int[] second = new int[48];
+
+        mEngine.setRandom(new Random(42));
+        mEngine.deal(24, 6, 8);
+        for (int position = 0; position < 48; position++)
+            first[position] = mEngine.getFace(position);
+
+        mEngine.setRandom(new Random(42));
+        mEngine.deal(24, 6, 8);
+        for (int position = 0; position < 48; position++)
+            second[position] = mEngine.getFace(position);
+
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void shuffledImagesArePermutation() {
+        mEngine.shuffleImages(24);
+
+        boolean[] seen = new boolean[24];
+        for (int face = 0; face < 24; face++) {
+            assertFalse(seen[mEngine.getImage(face)]);
+            seen[mEngine.getImage(face)] = true;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooFewCardsIsRejected() {
+        mEngine.newGame(4, 7);
+    }
+
+    private int countCards(int numCards) {
+        int cards = 0;
+        for (int position = 0; position < numCards; position++)
+            if (mEngine.getFace(position) != GameEngine.EMPTY)
+                cards++;
+
+        return cards;
+    }
+}
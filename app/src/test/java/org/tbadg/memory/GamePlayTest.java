@@ -0,0 +1,131 @@
+package org.tbadg.memory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+public class GamePlayTest {
+    private GameEngine mEngine;
+    private VirtualClock mClock;
+    private GamePlay mGamePlay;
+    private final ArrayList<String> mEvents = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        // A 2 x 3 board with 2 matches and two empty spots: { 0, 1, -, 1, 0, - }
+        mEngine = new GameEngine();
+        mEngine.newGame(2, 6);
+        mEngine.setFace(0, 0);
+        mEngine.setFace(1, 1);
+        mEngine.setFace(3, 1);
+        mEngine.setFace(4, 0);
+
+        mClock = new VirtualClock();
+        mGamePlay = new GamePlay(new GameTimeline(mClock), mListener);
+        mGamePlay.start(mEngine);
+        mEvents.clear();
+    }
+
+    @After
+    public void tearDown() {
+        GameSpeed.setSystemScale(1f);
+    }
+
+    @Test
+    public void missedPairStaysVisibleWithAnimationsOff() {
+        GameSpeed.setSystemScale(0f);
+
+        tap(0);
+        tap(1);
+        mClock.advanceBy(0);
+        assertEquals("[front 0, front 1]", mEvents.toString());
+
+        // Long enough to see both faces, however fast the cards flipped:
+        mClock.advanceBy(Card.CARD_FLIP_MSECS);
+        assertEquals("[front 0, front 1]", mEvents.toString());
+
+        mClock.advanceBy(Card.CARD_FLIP_MSECS);
+        assertEquals("[front 0, front 1, back 0, back 1]", mEvents.toString());
+    }
+
+    @Test
+    public void matchedPairStaysVisibleWithAnimationsOff() {
+        GameSpeed.setSystemScale(0f);
+
+        tap(0);
+        tap(4);
+        mClock.advanceBy(Card.CARD_FLIP_MSECS - 1);
+        assertEquals("[front 0, front 4]", mEvents.toString());
+
+        mClock.advanceBy(1);
+        assertEquals("[front 0, front 4, remove 0, remove 4]", mEvents.toString());
+    }
+
+    @Test
+    public void turboSnapBackDoesNotRaceRemovalWithAnimationsOff() {
+        GameSpeed.setSystemScale(0f);
+        mGamePlay.setTurbo(true);
+
+        // Miss, then pick one of the missed cards again, which snaps the pair back first:
+        tap(0);
+        tap(1);
+        tap(1);
+        tap(3);
+        assertEquals("[front 0, front 1, show back 0, show back 1, front 1, front 3]",
+                     mEvents.toString());
+
+        // The matched pair is removed once, and no flip back of the missed pair follows it:
+        mEvents.clear();
+        tap(0);
+        mClock.advanceBy(2 * Card.CARD_FLIP_MSECS);
+        assertEquals("[remove 1, remove 3]", mEvents.toString());
+
+        mEvents.clear();
+        tap(0);
+        tap(4);
+        mClock.advanceBy(Card.CARD_FLIP_MSECS);
+        assertEquals("[front 0, front 4, remove 0, remove 4]", mEvents.toString());
+
+        mClock.advanceBy(Card.CARD_FLIP_MSECS);
+        assertEquals("[front 0, front 4, remove 0, remove 4, win]", mEvents.toString());
+    }
+
+    private void tap(int position) {
+        mGamePlay.onCardTouched(position, mClock.now());
+    }
+
+    private final GamePlay.Listener mListener = new GamePlay.Listener() {
+        @Override
+        public void onFlipToFront(int position, int face) {
+            mEvents.add("front " + position);
+        }
+
+        @Override
+        public void onFlipToBack(int position) {
+            mEvents.add("back " + position);
+        }
+
+        @Override
+        public void onShowBack(int position) {
+            mEvents.add("show back " + position);
+        }
+
+        @Override
+        public void onRemove(int position) {
+            mEvents.add("remove " + position);
+        }
+
+        @Override
+        public void onSound(SoundsEffects.Type type) {
+        }
+
+        @Override
+        public void onWin() {
+            mEvents.add("win");
+        }
+    };
+}
@@ -0,0 +1,95 @@
+package org.tbadg.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GameTimelineTest {
+    private VirtualClock mClock;
+    private GameTimeline mTimeline;
+    private final ArrayList<String> mRan = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mClock = new VirtualClock();
+        mTimeline = new GameTimeline(mClock);
+        mRan.clear();
+    }
+
+    @Test
+    public void actionsRunWhenDue() {
+        mTimeline.schedule(record("flip"), 1000);
+
+        mClock.advanceBy(999);
+        assertEquals(0, mRan.size());
+
+        mClock.advanceBy(1);
+        assertEquals(1, mRan.size());
+        assertFalse(mClock.isWakePending());
+    }
+
+    @Test
+    public void actionsRunInDueOrder() {
+        mTimeline.schedule(record("win"), 1500);
+        mTimeline.schedule(record("remove"), 750);
+        mTimeline.schedule(record("also remove"), 750);
+
+        mClock.advanceBy(2000);
+        assertEquals("[remove, also remove, win]", mRan.toString());
+    }
+
+    @Test
+    public void newGenerationDropsPendingActions() {
+        mTimeline.schedule(record("remove"), 750);
+        mTimeline.schedule(record("win"), 1500);
+
+        mClock.advanceBy(500);
+        mTimeline.newGeneration();
+        mClock.advanceBy(2000);
+
+        assertEquals(0, mRan.size());
+        assertFalse(mClock.isWakePending());
+    }
+
+    @Test
+    public void actionCanStartNewGeneration() {
+        final Runnable late = record("late");
+        mTimeline.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mTimeline.newGeneration();
+            }
+        }, 100);
+        mTimeline.schedule(late, 100);
+
+        mClock.advanceBy(100);
+        assertEquals(0, mRan.size());
+    }
+
+    @Test
+    public void cancelRemovesOnlyThatAction() {
+        Runnable flip = record("flip");
+        mTimeline.schedule(flip, 1000);
+        mTimeline.schedule(record("win"), 1000);
+
+        assertTrue(mTimeline.cancel(flip));
+        assertFalse(mTimeline.cancel(flip));
+
+        mClock.advanceBy(1000);
+        assertEquals("[win]", mRan.toString());
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mRan.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package org.tbadg.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+    private LatencyHistogram mHistogram;
+
+    @Before
+    public void setUp() {
+        mHistogram = new LatencyHistogram(100);
+    }
+
+    @Test
+    public void emptyHistogramHasNoPercentiles() {
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(-1, mHistogram.getPercentile(50));
+    }
+
+    @Test
+    public void percentilesAreExactWithinRange() {
+        for (int msecs = 1; msecs <= 100; msecs++)
+            mHistogram.record(msecs);
+
+        assertEquals(100, mHistogram.getCount());
+        assertEquals(50, mHistogram.getPercentile(50));
+        assertEquals(95, mHistogram.getPercentile(95));
+        assertEquals(99, mHistogram.getPercentile(99));
+        assertEquals(100, mHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeLatenciesAreClamped() {
+        mHistogram.record(-5);
+        mHistogram.record(250);
+
+        assertEquals(0, mHistogram.getPercentile(50));
+        assertEquals(250, mHistogram.getPercentile(99));
+        assertEquals(250, mHistogram.getMax());
+    }
+}
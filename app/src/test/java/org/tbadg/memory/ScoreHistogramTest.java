@@ -0,0 +1,63 @@
+package org.tbadg.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScoreHistogramTest {
+    private ScoreHistogram mHistogram;
+
+    @Before
+    public void setUp() {
+        mHistogram = new ScoreHistogram();
+    }
+
+    @Test
+    public void emptyHistogramHasNoRank() {
+        assertEquals(0, mHistogram.getNumGames());
+        assertEquals(-1, mHistogram.getPercentBeaten(75));
+    }
+
+    @Test
+    public void percentBeatenCountsLowerScoresOnly() {
+        for (int score = 0; score < 100; score++)
+            mHistogram.add(score);
+
+        assertEquals(0, mHistogram.getPercentBeaten(0));
+        assertEquals(50, mHistogram.getPercentBeaten(50));
+        assertEquals(99, mHistogram.getPercentBeaten(99));
+        assertEquals(100, mHistogram.getPercentBeaten(GameEngine.MAX_SCORE));
+    }
+
+    @Test
+    public void outOfRangeScoresAreClamped() {
+        mHistogram.add(-5);
+        mHistogram.add(GameEngine.MAX_SCORE + 50);
+
+        assertEquals(2, mHistogram.getNumGames());
+        assertEquals(50, mHistogram.getPercentBeaten(GameEngine.MAX_SCORE));
+    }
+
+    @Test
+    public void mergeAddsCounts() {
+        ScoreHistogram other = new ScoreHistogram();
+        mHistogram.add(10, 3);
+        other.add(20, 1);
+        mHistogram.merge(other);
+
+        assertEquals(4, mHistogram.getNumGames());
+        assertEquals(75, mHistogram.getPercentBeaten(20));
+    }
+
+    @Test
+    public void bytesRoundTrip() {
+        mHistogram.add(0, 2);
+        mHistogram.add(GameEngine.MAX_SCORE, 5);
+
+        ScoreHistogram copy = ScoreHistogram.fromBytes(mHistogram.toBytes());
+        assertEquals(7, copy.getNumGames());
+        assertEquals(28, copy.getPercentBeaten(GameEngine.MAX_SCORE));
+        assertEquals(0, ScoreHistogram.fromBytes(null).getNumGames());
+    }
+}
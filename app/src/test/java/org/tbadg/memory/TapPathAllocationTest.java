@@ -0,0 +1,212 @@
+package org.tbadg.memory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Plays thousands of taps through GamePlay, the code behind Board's touch listener, and checks
+ * that none of them allocates. Its listener does what a board's does, short of the views: it
+ * runs the cards' animations on a CardAnimationEngine, frame by frame, and plays the sounds
+ * through SoundsEffects, with a player in place of the SoundPool. The views and the SoundPool
+ * themselves aren't covered.
+ */
+public class TapPathAllocationTest {
+    // A small board, so games are won often enough to warm up quickly:
+    private static final int NUM_MATCHES = 6;
+    private static final int NUM_ROWS = 3;
+    private static final int NUM_COLS = 4;
+    private static final int NUM_TAPS = 10000;
+    private static final int FRAMES_BETWEEN_TAPS = 3;
+    private static final int MSECS_BETWEEN_FRAMES = 50;
+    private static final long NANOS_PER_MSEC = 1000000;
+    private static final long ENGINE_SEED = 42;
+    private static final int WARM_UP_ROUNDS = 30;
+
+    private GameEngine mEngine;
+    private Random mRandom;
+    private VirtualClock mClock;
+    private GamePlay mGamePlay;
+    private CardAnimationEngine mAnimations;
+    private SoundsEffects mSoundsEffects;
+    private int[] mTaps;
+    private int mGamesWon;
+
+    @Before
+    public void setUp() {
+        mEngine = new GameEngine();
+        mRandom = new Random();
+        mEngine.setRandom(mRandom);
+
+        mClock = new VirtualClock();
+        mGamePlay = new GamePlay(new GameTimeline(mClock), mListener);
+        mAnimations = new CardAnimationEngine(mAnimationTarget, 16 * NANOS_PER_MSEC);
+
+        // Every sound loads right away:
+        mSoundsEffects = new SoundsEffects(mPlayer, 1f, null);
+        mSoundsEffects.load();
+        for (int soundId = 1; soundId <= mPlayer.mNumLoaded; soundId++)
+            mSoundsEffects.onLoadComplete(soundId, 0);
+
+        // The taps are chosen up front, so choosing them isn't measured:
+        Random random = new Random(7);
+        mTaps = new int[NUM_TAPS];
+        for (int i = 0; i < NUM_TAPS; i++)
+            mTaps[i] = random.nextInt(NUM_ROWS * NUM_COLS);
+    }
+
+    @Test
+    public void tapsDoNotAllocate() {
+        mGamePlay.setTurbo(false);
+        assertTapsDoNotAllocate();
+    }
+
+    @Test
+    public void turboTapsDoNotAllocate() {
+        mGamePlay.setTurbo(true);
+        assertTapsDoNotAllocate();
+    }
+
+    private void assertTapsDoNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        // Replay exactly the games that are measured until the JIT has settled. The thread that
+        // requests a compilation allocates on its behalf, e.g. to resolve the string constants
+        // of the class being compiled, and the methods run only once a game, such as the win
+        // action, need thousands of calls before they are compiled for good:
+        for (int round = 0; round < WARM_UP_ROUNDS; round++)
+            measureRound(allocations, thread);
+
+        assertEquals(0, measureRound(allocations, thread));
+        assertTrue(mGamesWon > 0);
+        assertTrue(mPlayer.mNumPlayed > 0);
+    }
+
+    private long measureRound(com.sun.management.ThreadMXBean allocations, long thread) {
+        startGames();
+
+        long before = allocations.getThreadAllocatedBytes(thread);
+        playTaps();
+        long after = allocations.getThreadAllocatedBytes(thread);
+
+        // Reading the counter can allocate a little itself, which the overhead of back-to-back
+        // reads accounts for:
+        long overhead = allocations.getThreadAllocatedBytes(thread) - after;
+        return Math.max(0, after - before - overhead);
+    }
+
+    private void startGames() {
+        mRandom.setSeed(ENGINE_SEED);
+        mGamesWon = 0;
+        newGame();
+    }
+
+    private void newGame() {
+        mEngine.deal(NUM_MATCHES, NUM_ROWS, NUM_COLS);
+        mEngine.shuffleImages(NUM_MATCHES);
+        mGamePlay.start(mEngine);
+    }
+
+    private void playTaps() {
+        for (int tap : mTaps) {
+            mGamePlay.onCardTouched(tap, mClock.now());
+            for (int frame = 0; frame < FRAMES_BETWEEN_TAPS; frame++) {
+                mClock.advanceBy(MSECS_BETWEEN_FRAMES);
+                mAnimations.onFrame(mClock.now() * NANOS_PER_MSEC);
+            }
+        }
+    }
+
+    private final GamePlay.Listener mListener = new GamePlay.Listener() {
+        @Override
+        public void onFlipToFront(int position, int face) {
+            mAnimations.flip(position);
+        }
+
+        @Override
+        public void onFlipToBack(int position) {
+            mAnimations.flip(position);
+        }
+
+        @Override
+        public void onShowBack(int position) {
+            mAnimations.cancel(position);
+        }
+
+        @Override
+        public void onRemove(int position) {
+            mAnimations.remove(position);
+        }
+
+        @Override
+        public void onSound(SoundsEffects.Type type) {
+            mSoundsEffects.play(type);
+        }
+
+        @Override
+        public void onWin() {
+            // As if the winner popup were dismissed right away:
+            mGamesWon++;
+            newGame();
+        }
+    };
+
+    // The views the animations would move:
+    private final CardAnimationEngine.Target mAnimationTarget = new CardAnimationEngine.Target() {
+        @Override
+        public void onCardFrame(int position, float rotationY, float scale) {
+        }
+
+        @Override
+        public void onFrameDone() {
+        }
+
+        @Override
+        public void onFlipHalfway(int position) {
+        }
+
+        @Override
+        public void onAnimationStart(int position, int animation) {
+        }
+
+        @Override
+        public void onAnimationEnd(int position, int animation) {
+        }
+    };
+
+    // Stands in for the SoundPool, numbering the sounds from 1 as it does:
+    private final SoundPlayer mPlayer = new SoundPlayer();
+
+    private static class SoundPlayer implements SoundsEffects.SoundPlayer {
+        private int mNumLoaded = 0;
+        private int mNumPlayed = 0;
+
+        @Override
+        public int load(int resourceId) {
+            return ++mNumLoaded;
+        }
+
+        @Override
+        public void play(int soundId, float volume, int loop) {
+            mNumPlayed++;
+        }
+
+        @Override
+        public void pause(int soundId) {
+        }
+
+        @Override
+        public void stop(int soundId) {
+        }
+    }
+}
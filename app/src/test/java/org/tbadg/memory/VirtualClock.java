@@ -0,0 +1,46 @@
+package org.tbadg.memory;
+
+/**
+ * A GameTimeline clock that only moves when a test advances it.
+ */
+class VirtualClock implements GameTimeline.Clock {
+    private long mNow = 0;
+    private Runnable mTick = null;
+    private long mWakeTime;
+
+
+    public void advanceBy(long msecs) {
+        long target = mNow + msecs;
+
+        // Run each wake-up at its own time, as a looper would:
+        while (mTick != null && mWakeTime <= target) {
+            mNow = mWakeTime;
+            Runnable tick = mTick;
+            mTick = null;
+            tick.run();
+        }
+
+        mNow = target;
+    }
+
+    public boolean isWakePending() {
+        return mTick != null;
+    }
+
+    @Override
+    public long now() {
+        return mNow;
+    }
+
+    @Override
+    public void wakeAt(Runnable tick, long time) {
+        mTick = tick;
+        mWakeTime = time;
+    }
+
+    @Override
+    public void cancelWake(Runnable tick) {
+        if (mTick == tick)
+            mTick = null;
+    }
+}